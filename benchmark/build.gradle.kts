@@ -0,0 +1,49 @@
+// JMH benchmarks of the pure Java code of :lib, run on a plain JVM:
+//   ./gradlew :benchmark:jmh
+// Results are written to build/results/jmh/results.json. The gc profiler adds
+// gc.alloc.rate.norm, the bytes allocated per operation.
+// The baseline* benchmarks run the code as it was before, see BaselineHttpURLConnection.
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+val libSources = file("../lib/src/main/java")
+// Classes of :lib under benchmark and the classes they reference. The Android classes they
+// use are replaced by the JVM stand-ins in src/main/java.
+val libClasses = setOf(
+    "Cocos2dxHttpURLConnection",
+    "Cocos2dxHttpResponseHeaders",
+    "Cocos2dxHttpCache",
+    "Cocos2dxHttpSingleFlight",
+    "Cocos2dxHttpTiming",
+    "Cocos2dxHttpRequestBody",
+    "Cocos2dxHttpPriority"
+)
+
+sourceSets {
+    main {
+        java {
+            srcDir(libSources)
+            include { it.isDirectory || !it.file.startsWith(libSources) || it.file.nameWithoutExtension in libClasses }
+        }
+    }
+}
+
+dependencies {
+    implementation(files("../lib/libs/okhttp-3.12.7.jar", "../lib/libs/okio-1.15.0.jar"))
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    profilers.add("gc")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+}
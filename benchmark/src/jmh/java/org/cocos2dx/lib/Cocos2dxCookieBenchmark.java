@@ -0,0 +1,100 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cookie and date parsing of Cocos2dxHttpURLConnection on the Set-Cookie batch of BenchmarkHeaders.
+ * The baseline* benchmarks run the same calls through BaselineHttpURLConnection, whose date
+ * parser only reads the first date format and fails on the second.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class Cocos2dxCookieBenchmark {
+    @State(Scope.Thread)
+    public static class CookieDate {
+        // The two date formats cookies are sent with
+        @Param({"Fri, 18-Oct-24 08:30:00 GMT", "Sat, 19 Oct 2024 07:30:00 GMT"})
+        public String expires;
+    }
+
+    private HttpURLConnection mConnection;
+
+    @Setup
+    public void setup() throws IOException {
+        mConnection = BenchmarkHeaders.openConnection();
+    }
+
+    @Benchmark
+    public String combinCookies() {
+        return Cocos2dxHttpURLConnection.combinCookies(BenchmarkHeaders.SET_COOKIES, BenchmarkHeaders.HOST);
+    }
+
+    @Benchmark
+    public String baselineCombinCookies() {
+        return BaselineHttpURLConnection.combinCookies(BenchmarkHeaders.SET_COOKIES, BenchmarkHeaders.HOST);
+    }
+
+    // The Set-Cookie lookup native does, snapshot lookup plus combinCookies
+    @Benchmark
+    public String getSetCookie() {
+        return Cocos2dxHttpURLConnection.getResponseHeaderByKey(mConnection, "Set-Cookie");
+    }
+
+    // The same on a response whose snapshot isn't built yet
+    @Benchmark
+    public String getSetCookieCold() {
+        String value = Cocos2dxHttpURLConnection.getResponseHeaderByKey(mConnection, "Set-Cookie");
+        Cocos2dxHttpURLConnection.disconnect(mConnection);
+        return value;
+    }
+
+    @Benchmark
+    public String baselineGetSetCookie() {
+        return BaselineHttpURLConnection.getResponseHeaderByKey(mConnection, "Set-Cookie");
+    }
+
+    @Benchmark
+    public String str2Seconds(CookieDate date) {
+        return Cocos2dxHttpURLConnection.str2Seconds(date.expires);
+    }
+
+    @Benchmark
+    public String baselineStr2Seconds(CookieDate date) {
+        return BaselineHttpURLConnection.str2Seconds(date.expires);
+    }
+}
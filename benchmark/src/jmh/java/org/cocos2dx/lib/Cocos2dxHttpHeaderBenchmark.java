@@ -0,0 +1,142 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Header helpers of Cocos2dxHttpURLConnection on the recorded CDN response of BenchmarkHeaders.
+ * The baseline* benchmarks run the same calls through BaselineHttpURLConnection. The lookups
+ * without a suffix hit the snapshot cached for the connection, the *Cold ones build it first,
+ * as the first lookup of each response does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class Cocos2dxHttpHeaderBenchmark {
+    private HttpURLConnection mConnection;
+    private List<String> mVary;
+
+    @Setup
+    public void setup() throws IOException {
+        mConnection = BenchmarkHeaders.openConnection();
+        mVary = BenchmarkHeaders.RESPONSE_HEADERS.get("Vary");
+    }
+
+    @Benchmark
+    public String listToString() {
+        return Cocos2dxHttpURLConnection.listToString(mVary, ",");
+    }
+
+    @Benchmark
+    public String baselineListToString() {
+        return BaselineHttpURLConnection.listToString(mVary, ",");
+    }
+
+    // Walking the header map, done once per connection
+    @Benchmark
+    public Cocos2dxHttpResponseHeaders snapshot() {
+        return new Cocos2dxHttpResponseHeaders(BenchmarkHeaders.RESPONSE_HEADERS);
+    }
+
+    // A fresh snapshot joined into the "key:value\n" form of getResponseHeaders
+    @Benchmark
+    public String joined() {
+        return new Cocos2dxHttpResponseHeaders(BenchmarkHeaders.RESPONSE_HEADERS).getJoined();
+    }
+
+    // A fresh snapshot packed into the buffer of getResponseHeadersPacked
+    @Benchmark
+    public byte[] packed() {
+        return new Cocos2dxHttpResponseHeaders(BenchmarkHeaders.RESPONSE_HEADERS).pack();
+    }
+
+    @Benchmark
+    public String baselineGetResponseHeaders() {
+        return BaselineHttpURLConnection.getResponseHeaders(mConnection);
+    }
+
+    @Benchmark
+    public String getResponseHeaderByKey() {
+        return Cocos2dxHttpURLConnection.getResponseHeaderByKey(mConnection, "cache-control");
+    }
+
+    // disconnect drops the snapshot, so every lookup builds it again
+    @Benchmark
+    public String getResponseHeaderByKeyCold() {
+        String value = Cocos2dxHttpURLConnection.getResponseHeaderByKey(mConnection, "cache-control");
+        Cocos2dxHttpURLConnection.disconnect(mConnection);
+        return value;
+    }
+
+    @Benchmark
+    public String baselineGetResponseHeaderByKey() {
+        return BaselineHttpURLConnection.getResponseHeaderByKey(mConnection, "cache-control");
+    }
+
+    @Benchmark
+    public int getResponseHeaderByKeyInt() {
+        return Cocos2dxHttpURLConnection.getResponseHeaderByKeyInt(mConnection, "Content-Length");
+    }
+
+    @Benchmark
+    public int getResponseHeaderByKeyIntCold() {
+        int value = Cocos2dxHttpURLConnection.getResponseHeaderByKeyInt(mConnection, "Content-Length");
+        Cocos2dxHttpURLConnection.disconnect(mConnection);
+        return value;
+    }
+
+    @Benchmark
+    public int baselineGetResponseHeaderByKeyInt() {
+        return BaselineHttpURLConnection.getResponseHeaderByKeyInt(mConnection, "Content-Length");
+    }
+
+    @Benchmark
+    public String getResponseHeaderByIdx() {
+        return Cocos2dxHttpURLConnection.getResponseHeaderByIdx(mConnection, 12);
+    }
+
+    @Benchmark
+    public String getResponseHeaderByIdxCold() {
+        String value = Cocos2dxHttpURLConnection.getResponseHeaderByIdx(mConnection, 12);
+        Cocos2dxHttpURLConnection.disconnect(mConnection);
+        return value;
+    }
+
+    @Benchmark
+    public String baselineGetResponseHeaderByIdx() {
+        return BaselineHttpURLConnection.getResponseHeaderByIdx(mConnection, 12);
+    }
+}
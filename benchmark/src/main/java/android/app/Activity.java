@@ -0,0 +1,7 @@
+package android.app;
+
+import android.content.Context;
+
+// JVM stand-in for the Android class, only what the benchmarked sources reference.
+public abstract class Activity extends Context {
+}
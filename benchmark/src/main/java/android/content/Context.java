@@ -0,0 +1,12 @@
+package android.content;
+
+import android.content.res.AssetManager;
+
+import java.io.File;
+
+// JVM stand-in for the Android class, only what the benchmarked sources reference.
+public abstract class Context {
+    public abstract AssetManager getAssets();
+
+    public abstract File getCacheDir();
+}
@@ -0,0 +1,21 @@
+package android.net.http;
+
+import java.io.File;
+import java.io.IOException;
+
+// JVM stand-in for the Android class, no cache is ever installed.
+public final class HttpResponseCache {
+    public static HttpResponseCache getInstalled() {
+        return null;
+    }
+
+    public static HttpResponseCache install(File directory, long maxSize) throws IOException {
+        throw new IOException("HttpResponseCache isn't available on the JVM");
+    }
+
+    public void flush() {
+    }
+
+    public void delete() throws IOException {
+    }
+}
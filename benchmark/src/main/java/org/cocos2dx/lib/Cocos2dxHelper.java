@@ -0,0 +1,10 @@
+package org.cocos2dx.lib;
+
+import android.app.Activity;
+
+// JVM stand-in for lib's Cocos2dxHelper, there is no activity in a benchmark.
+public class Cocos2dxHelper {
+    public static Activity getActivity() {
+        return null;
+    }
+}
@@ -10,6 +10,11 @@ android {
     defaultConfig {
         minSdk = 21
         consumerProguardFiles("consumer-rules.pro")
+
+        // Microbenchmarks in src/androidTest, they report ns and allocations per call
+        testInstrumentationRunner = "androidx.benchmark.junit4.AndroidBenchmarkRunner"
+        // Timings of the debuggable test APK are only good for comparisons, allocation counts are exact
+        testInstrumentationRunnerArguments["androidx.benchmark.suppressErrors"] = "DEBUGGABLE"
     }
 
     buildTypes {
@@ -51,4 +56,6 @@ dependencies {
     // 添加libs目录下的所有jar文件
     implementation(fileTree(mapOf("dir" to "libs", "include" to listOf("*.jar"))))
     implementation(libs.utilcodex)
+    androidTestImplementation(libs.androidx.junit)
+    androidTestImplementation(libs.androidx.benchmark.junit4)
 }
\ No newline at end of file
@@ -0,0 +1,214 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.os.Debug;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * fillRect, clearRect, fillText, _fillImageData and resizing on a label-sized canvas. The benchmarks report the time and the
+ * allocations per call; the *AllocatesNothing tests fail if a call allocates on the Java heap.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CanvasRenderingContext2DImplBenchmark {
+    private static final int SIZE = 1024;
+    private static final int CALLS = 100;
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog";
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private CanvasRenderingContext2DImpl mContext;
+    // Direct like the buffer native passes to _fillImageData
+    private final ByteBuffer mImageData = ByteBuffer.allocateDirect(SIZE * SIZE * 4);
+
+    @Before
+    public void setUp() {
+        mContext = new CanvasRenderingContext2DImpl();
+        mContext.recreateBuffer(SIZE, SIZE);
+        for (int i = 0; i < mImageData.capacity(); i++) {
+            mImageData.put(i, (byte) i);
+        }
+    }
+
+    @Test
+    public void fillRect() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mContext.fillRect(0, 0, SIZE, SIZE);
+        }
+    }
+
+    @Test
+    public void fillRectPartial() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mContext.fillRect(16, 16, SIZE / 2, SIZE / 2);
+        }
+    }
+
+    @Test
+    public void clearRect() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mContext.clearRect(0, 0, SIZE, SIZE);
+        }
+    }
+
+    @Test
+    public void clearRectPartial() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mContext.clearRect(16, 16, SIZE / 2, SIZE / 2);
+        }
+    }
+
+    @Test
+    public void fillText() {
+        // A partial fill ends the label, the text is drawn right away
+        mContext.fillRect(0, 0, 1, 1);
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mContext.fillText(TEXT, SIZE / 2, SIZE / 2, SIZE / 4);
+        }
+    }
+
+    @Test
+    public void measureText() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mContext.measureText(TEXT);
+        }
+    }
+
+    @Test
+    public void recreateBuffer() {
+        // Like a label whose text changes every frame, the bitmaps come from Cocos2dxBitmapPool
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mContext.recreateBuffer(SIZE / 2 + (i++ % 32), SIZE / 8);
+        }
+    }
+
+    @Test
+    public void fillImageData() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mContext._fillImageData(mImageData, SIZE, SIZE, 0, 0);
+        }
+    }
+
+    @Test
+    public void fillImageDataPartial() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mContext._fillImageData(mImageData, SIZE / 2, SIZE / 2, 16, 16);
+        }
+    }
+
+    @Test
+    public void fillRectAllocatesNothing() {
+        assertEquals(0, getAllocatedBytes(new Runnable() {
+            @Override
+            public void run() {
+                mContext.fillRect(0, 0, SIZE, SIZE);
+                mContext.fillRect(16, 16, SIZE / 2, SIZE / 2);
+            }
+        }));
+    }
+
+    @Test
+    public void clearRectAllocatesNothing() {
+        assertEquals(0, getAllocatedBytes(new Runnable() {
+            @Override
+            public void run() {
+                mContext.clearRect(0, 0, SIZE, SIZE);
+                mContext.clearRect(16, 16, SIZE / 2, SIZE / 2);
+            }
+        }));
+    }
+
+    // Text on a cleared bitmap is deferred as a label
+    @Test
+    public void fillTextAllocatesNothing() {
+        assertEquals(0, getAllocatedBytes(new Runnable() {
+            @Override
+            public void run() {
+                mContext.clearRect(0, 0, SIZE, SIZE);
+                mContext.fillText(TEXT, SIZE / 2, SIZE / 2, 0);
+                mContext.fillText(TEXT, SIZE / 2, SIZE / 2, SIZE / 4);
+            }
+        }));
+    }
+
+    // A partial fillRect ends the label, the text is drawn right away
+    @Test
+    public void fillTextOverDrawingAllocatesNothing() {
+        mContext.fillRect(0, 0, 1, 1);
+        assertEquals(0, getAllocatedBytes(new Runnable() {
+            @Override
+            public void run() {
+                mContext.fillText(TEXT, SIZE / 2, SIZE / 2, 0);
+                mContext.fillText(TEXT, SIZE / 2, SIZE / 2, SIZE / 4);
+            }
+        }));
+    }
+
+    @Test
+    public void fillImageDataAllocatesNothing() {
+        assertEquals(0, getAllocatedBytes(new Runnable() {
+            @Override
+            public void run() {
+                mContext._fillImageData(mImageData, SIZE, SIZE, 0, 0);
+                mContext._fillImageData(mImageData, SIZE / 2, SIZE / 2, 16, 16);
+            }
+        }));
+    }
+
+    // Java heap bytes allocated by the calling thread over CALLS runs, after one warm-up run
+    @SuppressWarnings("deprecation")
+    private static long getAllocatedBytes(Runnable call) {
+        call.run();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        for (int i = 0; i < CALLS; i++) {
+            call.run();
+        }
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocSize();
+    }
+}
@@ -0,0 +1,202 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Runs encoded command buffers through executeCommands and compares the pixels with a context
+ * that received the same calls directly.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CanvasRenderingContext2DImplCommandTest {
+    private static final int SIZE = 64;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private CanvasRenderingContext2DImpl mDirect;
+    private CanvasRenderingContext2DImpl mDecoded;
+    private ByteBuffer mCommands;
+
+    @Before
+    public void setUp() {
+        mDirect = new CanvasRenderingContext2DImpl();
+        mDecoded = new CanvasRenderingContext2DImpl();
+        mCommands = ByteBuffer.allocate(64 * 1024).order(ByteOrder.nativeOrder());
+    }
+
+    @Test
+    public void executeCommandsMatchesDirectCalls() {
+        mDirect.recreateBuffer(SIZE, SIZE);
+        command(CanvasRenderingContext2DImpl.CMD_RECREATE_BUFFER).putFloat(SIZE).putFloat(SIZE);
+
+        mDirect.setFillStyle(1, 0.5f, 0, 1);
+        command(CanvasRenderingContext2DImpl.CMD_SET_FILL_STYLE).putFloat(1).putFloat(0.5f).putFloat(0).putFloat(1);
+        mDirect.fillRect(0, 0, SIZE, SIZE);
+        command(CanvasRenderingContext2DImpl.CMD_FILL_RECT).putFloat(0).putFloat(0).putFloat(SIZE).putFloat(SIZE);
+        mDirect.clearRect(4, 4, 8, 8);
+        command(CanvasRenderingContext2DImpl.CMD_CLEAR_RECT).putFloat(4).putFloat(4).putFloat(8).putFloat(8);
+
+        mDirect.saveContext();
+        command(CanvasRenderingContext2DImpl.CMD_SAVE);
+        mDirect.setStrokeStyle(0, 0, 1, 0.5f);
+        command(CanvasRenderingContext2DImpl.CMD_SET_STROKE_STYLE).putFloat(0).putFloat(0).putFloat(1).putFloat(0.5f);
+        mDirect.setLineWidth(3);
+        command(CanvasRenderingContext2DImpl.CMD_SET_LINE_WIDTH).putFloat(3);
+        mDirect.setLineCap("round");
+        command(CanvasRenderingContext2DImpl.CMD_SET_LINE_CAP).putInt(CanvasRenderingContext2DImpl.LINE_CAP_ROUND);
+        mDirect.setLineJoin("bevel");
+        command(CanvasRenderingContext2DImpl.CMD_SET_LINE_JOIN).putInt(CanvasRenderingContext2DImpl.LINE_JOIN_BEVEL);
+        mDirect.beginPath();
+        command(CanvasRenderingContext2DImpl.CMD_BEGIN_PATH);
+        mDirect.moveTo(8, 40);
+        command(CanvasRenderingContext2DImpl.CMD_MOVE_TO).putFloat(8).putFloat(40);
+        mDirect.lineTo(30, 20);
+        command(CanvasRenderingContext2DImpl.CMD_LINE_TO).putFloat(30).putFloat(20);
+        mDirect.lineTo(50, 50);
+        command(CanvasRenderingContext2DImpl.CMD_LINE_TO).putFloat(50).putFloat(50);
+        mDirect.closePath();
+        command(CanvasRenderingContext2DImpl.CMD_CLOSE_PATH);
+        mDirect.stroke();
+        command(CanvasRenderingContext2DImpl.CMD_STROKE);
+        mDirect.restoreContext();
+        command(CanvasRenderingContext2DImpl.CMD_RESTORE);
+
+        mDirect.beginPath();
+        command(CanvasRenderingContext2DImpl.CMD_BEGIN_PATH);
+        mDirect.rect(40, 4, 16, 12);
+        command(CanvasRenderingContext2DImpl.CMD_RECT).putFloat(40).putFloat(4).putFloat(16).putFloat(12);
+        mDirect.fill();
+        command(CanvasRenderingContext2DImpl.CMD_FILL);
+
+        mDirect.updateFont("sans-serif", 14, true, false, false, false);
+        string(command(CanvasRenderingContext2DImpl.CMD_UPDATE_FONT), "sans-serif").putFloat(14).putInt(1);
+        mDirect.setTextAlign(CanvasRenderingContext2DImpl.TEXT_ALIGN_CENTER);
+        command(CanvasRenderingContext2DImpl.CMD_SET_TEXT_ALIGN).putInt(CanvasRenderingContext2DImpl.TEXT_ALIGN_CENTER);
+        mDirect.setTextBaseline(CanvasRenderingContext2DImpl.TEXT_BASELINE_TOP);
+        command(CanvasRenderingContext2DImpl.CMD_SET_TEXT_BASELINE).putInt(CanvasRenderingContext2DImpl.TEXT_BASELINE_TOP);
+        mDirect.fillText("Héllo", SIZE / 2, 20, 0);
+        string(command(CanvasRenderingContext2DImpl.CMD_FILL_TEXT), "Héllo").putFloat(SIZE / 2).putFloat(20).putFloat(0);
+        mDirect.strokeText("wide text", SIZE / 2, 40, 20);
+        string(command(CanvasRenderingContext2DImpl.CMD_STROKE_TEXT), "wide text").putFloat(SIZE / 2).putFloat(40).putFloat(20);
+
+        byte[] imageData = new byte[4 * 4 * 4];
+        for (int i = 0; i < imageData.length; i++) {
+            imageData[i] = (byte) (i * 17);
+        }
+        ByteBuffer directImageData = ByteBuffer.allocateDirect(imageData.length);
+        directImageData.put(imageData).flip();
+        mDirect._fillImageData(directImageData, 4, 4, 50, 50);
+        command(CanvasRenderingContext2DImpl.CMD_FILL_IMAGE_DATA).putInt(imageData.length).put(imageData).putFloat(4).putFloat(4).putFloat(50).putFloat(50);
+
+        assertPixelsEqual();
+    }
+
+    @Test
+    public void executeCommandsMatchesDirectLabel() {
+        mDirect.recreateBuffer(SIZE, SIZE / 2);
+        command(CanvasRenderingContext2DImpl.CMD_RECREATE_BUFFER).putFloat(SIZE).putFloat(SIZE / 2);
+        mDirect.clearRect(0, 0, SIZE, SIZE / 2);
+        command(CanvasRenderingContext2DImpl.CMD_CLEAR_RECT).putFloat(0).putFloat(0).putFloat(SIZE).putFloat(SIZE / 2);
+        mDirect.setFillStyle(1, 1, 1, 1);
+        command(CanvasRenderingContext2DImpl.CMD_SET_FILL_STYLE).putFloat(1).putFloat(1).putFloat(1).putFloat(1);
+        mDirect.updateFont("serif", 18, false, true, false, false);
+        string(command(CanvasRenderingContext2DImpl.CMD_UPDATE_FONT), "serif").putFloat(18).putInt(2);
+        mDirect.fillText("Label", 2, 24, 0);
+        string(command(CanvasRenderingContext2DImpl.CMD_FILL_TEXT), "Label").putFloat(2).putFloat(24).putFloat(0);
+
+        assertPixelsEqual();
+    }
+
+    // A corrupt length must neither allocate it nor read past the commands
+    @Test
+    public void executeCommandsRejectsCorruptLengths() {
+        mDecoded.recreateBuffer(SIZE, SIZE);
+        command(CanvasRenderingContext2DImpl.CMD_FILL_TEXT).putInt(Integer.MAX_VALUE).putFloat(0).putFloat(0).putFloat(0);
+        run(mDecoded);
+        command(CanvasRenderingContext2DImpl.CMD_UPDATE_FONT).putInt(-1).putFloat(12).putInt(0);
+        run(mDecoded);
+        command(CanvasRenderingContext2DImpl.CMD_FILL_IMAGE_DATA).putInt(Integer.MAX_VALUE - 8).putFloat(SIZE).putFloat(SIZE).putFloat(0).putFloat(0);
+        run(mDecoded);
+
+        command(CanvasRenderingContext2DImpl.CMD_SET_FILL_STYLE).putFloat(1).putFloat(0).putFloat(0).putFloat(1);
+        command(CanvasRenderingContext2DImpl.CMD_FILL_RECT).putFloat(0).putFloat(0).putFloat(SIZE).putFloat(SIZE);
+        ByteBuffer pixels = run(mDecoded);
+        assertNotNull(pixels);
+        assertEquals((byte) 0xff, pixels.get(0));
+        assertEquals((byte) 0xff, pixels.get(3));
+    }
+
+    @Test
+    public void executeCommandsStopsAtTruncatedCommand() {
+        mDirect.recreateBuffer(SIZE, SIZE);
+        command(CanvasRenderingContext2DImpl.CMD_RECREATE_BUFFER).putFloat(SIZE).putFloat(SIZE);
+        mDirect.setFillStyle(0, 1, 0, 1);
+        command(CanvasRenderingContext2DImpl.CMD_SET_FILL_STYLE).putFloat(0).putFloat(1).putFloat(0).putFloat(1);
+        mDirect.fillRect(0, 0, SIZE, SIZE);
+        command(CanvasRenderingContext2DImpl.CMD_FILL_RECT).putFloat(0).putFloat(0).putFloat(SIZE).putFloat(SIZE);
+        // Cut off after x and y
+        command(CanvasRenderingContext2DImpl.CMD_FILL_RECT).putFloat(0).putFloat(0);
+
+        assertPixelsEqual();
+    }
+
+    private ByteBuffer command(int opcode) {
+        return mCommands.put((byte) opcode);
+    }
+
+    private static ByteBuffer string(ByteBuffer commands, String text) {
+        byte[] bytes = text.getBytes(UTF_8);
+        return commands.putInt(bytes.length).put(bytes);
+    }
+
+    // Decodes the encoded commands into context and returns its pixels
+    private ByteBuffer run(CanvasRenderingContext2DImpl context) {
+        mCommands.flip();
+        ByteBuffer pixels = context.rasterize(mCommands);
+        mCommands.clear();
+        return pixels;
+    }
+
+    private void assertPixelsEqual() {
+        ByteBuffer decoded = run(mDecoded);
+        ByteBuffer direct = mDirect.rasterize(ByteBuffer.allocate(0));
+        assertNotNull(decoded);
+        assertNotNull(direct);
+        assertEquals(direct.remaining(), decoded.remaining());
+        for (int i = 0; i < direct.remaining(); i++) {
+            assertEquals("byte " + i, direct.get(i), decoded.get(i));
+        }
+    }
+}
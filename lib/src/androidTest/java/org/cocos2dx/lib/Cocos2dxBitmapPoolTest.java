@@ -0,0 +1,112 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.graphics.Bitmap;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Admission and reuse of Cocos2dxBitmapPool with the default 8 MB budget, for label-sized
+ * bitmaps and for large ones such as a full 1024x1024 canvas.
+ */
+@RunWith(AndroidJUnit4.class)
+public class Cocos2dxBitmapPoolTest {
+    private static final long MAX_BYTES = 8 * 1024 * 1024;
+    private static final int LARGE = 1024;
+
+    @Before
+    public void setUp() {
+        Cocos2dxBitmapPool.setMaxBytes(MAX_BYTES);
+        Cocos2dxBitmapPool.clear();
+        Cocos2dxBitmapPool.resetStats();
+    }
+
+    @After
+    public void tearDown() {
+        Cocos2dxBitmapPool.setMaxBytes(MAX_BYTES);
+        Cocos2dxBitmapPool.clear();
+    }
+
+    @Test
+    public void reusesSmallBitmap() {
+        Bitmap bitmap = Bitmap.createBitmap(256, 64, Bitmap.Config.ARGB_8888);
+        Cocos2dxBitmapPool.put(bitmap);
+
+        assertSame(bitmap, Cocos2dxBitmapPool.get(200, 64));
+        assertEquals(1, Cocos2dxBitmapPool.getStats()[0]);
+    }
+
+    @Test
+    public void reusesLargeBitmap() {
+        Bitmap bitmap = Bitmap.createBitmap(LARGE, LARGE, Bitmap.Config.ARGB_8888);
+        Cocos2dxBitmapPool.put(bitmap);
+
+        assertFalse(bitmap.isRecycled());
+        assertEquals(1, Cocos2dxBitmapPool.getStats()[3]);
+        Bitmap reused = Cocos2dxBitmapPool.get(LARGE, LARGE);
+        assertSame(bitmap, reused);
+        assertEquals(LARGE, reused.getWidth());
+        assertEquals(LARGE, reused.getHeight());
+        assertEquals(1, Cocos2dxBitmapPool.getStats()[0]);
+    }
+
+    @Test
+    public void poolsOneLargeBitmapAtATime() {
+        Bitmap small = Bitmap.createBitmap(256, 64, Bitmap.Config.ARGB_8888);
+        Bitmap first = Bitmap.createBitmap(LARGE, LARGE, Bitmap.Config.ARGB_8888);
+        Bitmap second = Bitmap.createBitmap(LARGE, LARGE, Bitmap.Config.ARGB_8888);
+        Cocos2dxBitmapPool.put(small);
+        Cocos2dxBitmapPool.put(first);
+        Cocos2dxBitmapPool.put(second);
+
+        assertTrue(first.isRecycled());
+        assertFalse(second.isRecycled());
+        assertFalse(small.isRecycled());
+        assertEquals(2, Cocos2dxBitmapPool.getStats()[3]);
+        assertSame(second, Cocos2dxBitmapPool.get(LARGE, LARGE));
+        assertNotSame(second, Cocos2dxBitmapPool.get(LARGE, LARGE));
+    }
+
+    @Test
+    public void recyclesBitmapLargerThanBudget() {
+        Cocos2dxBitmapPool.setMaxBytes(LARGE * LARGE * 2);
+        Bitmap bitmap = Bitmap.createBitmap(LARGE, LARGE, Bitmap.Config.ARGB_8888);
+        Cocos2dxBitmapPool.put(bitmap);
+
+        assertTrue(bitmap.isRecycled());
+        assertEquals(0, Cocos2dxBitmapPool.getStats()[3]);
+    }
+}
@@ -26,10 +26,16 @@ package org.cocos2dx.lib;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
 import android.graphics.Typeface;
 import android.os.Build;
 import android.text.TextPaint;
@@ -37,27 +43,105 @@ import android.util.Log;
 
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteOrder;
-import java.util.HashMap;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CanvasRenderingContext2DImpl {
 
     private static final String TAG = "CanvasContext2D";
 
-    private static final int TEXT_ALIGN_LEFT = 0;
-    private static final int TEXT_ALIGN_CENTER = 1;
-    private static final int TEXT_ALIGN_RIGHT = 2;
-
-    private static final int TEXT_BASELINE_TOP = 0;
-    private static final int TEXT_BASELINE_MIDDLE = 1;
-    private static final int TEXT_BASELINE_BOTTOM = 2;
+    static final int TEXT_ALIGN_LEFT = 0;
+    static final int TEXT_ALIGN_CENTER = 1;
+    static final int TEXT_ALIGN_RIGHT = 2;
+
+    static final int TEXT_BASELINE_TOP = 0;
+    static final int TEXT_BASELINE_MIDDLE = 1;
+    static final int TEXT_BASELINE_BOTTOM = 2;
+
+    private static final char LABEL_KEY_SEPARATOR = '\u001f';
+
+    // lineCap and lineJoin values of the command buffer, indexes into LINE_CAPS and LINE_JOINS
+    static final int LINE_CAP_BUTT = 0;
+    static final int LINE_CAP_ROUND = 1;
+    static final int LINE_CAP_SQUARE = 2;
+    private static final Paint.Cap[] LINE_CAPS = { Paint.Cap.BUTT, Paint.Cap.ROUND, Paint.Cap.SQUARE };
+
+    static final int LINE_JOIN_MITER = 0;
+    static final int LINE_JOIN_ROUND = 1;
+    static final int LINE_JOIN_BEVEL = 2;
+    private static final Paint.Join[] LINE_JOINS = { Paint.Join.MITER, Paint.Join.ROUND, Paint.Join.BEVEL };
+
+    /*
+     * Opcodes of the command buffer, see flushCommands. Each command is its opcode byte followed
+     * by its arguments in the order of the method it calls: f is a float, i an int, s a string as
+     * an int byte length and its UTF-8 bytes, d image data as an int byte length and its bytes.
+     */
+    static final int CMD_BEGIN_PATH = 1;
+    static final int CMD_CLOSE_PATH = 2;
+    static final int CMD_MOVE_TO = 3;           // f x, f y
+    static final int CMD_LINE_TO = 4;           // f x, f y
+    static final int CMD_STROKE = 5;
+    static final int CMD_FILL = 6;
+    static final int CMD_SET_LINE_CAP = 7;      // i LINE_CAP_*
+    static final int CMD_SET_LINE_JOIN = 8;     // i LINE_JOIN_*
+    static final int CMD_SAVE = 9;
+    static final int CMD_RESTORE = 10;
+    static final int CMD_RECT = 11;             // f x, f y, f w, f h
+    static final int CMD_CLEAR_RECT = 12;       // f x, f y, f w, f h
+    static final int CMD_FILL_RECT = 13;        // f x, f y, f w, f h
+    static final int CMD_FILL_TEXT = 14;        // s text, f x, f y, f maxWidth
+    static final int CMD_STROKE_TEXT = 15;      // s text, f x, f y, f maxWidth
+    static final int CMD_UPDATE_FONT = 16;      // s name, f size, i bold|italic<<1|oblique<<2|smallCaps<<3
+    static final int CMD_SET_TEXT_ALIGN = 17;   // i TEXT_ALIGN_*
+    static final int CMD_SET_TEXT_BASELINE = 18; // i TEXT_BASELINE_*
+    static final int CMD_SET_FILL_STYLE = 19;   // f r, f g, f b, f a
+    static final int CMD_SET_STROKE_STYLE = 20; // f r, f g, f b, f a
+    static final int CMD_SET_LINE_WIDTH = 21;   // f width
+    static final int CMD_RECREATE_BUFFER = 22;  // f w, f h
+    static final int CMD_FILL_IMAGE_DATA = 23;  // d RGBA, f w, f h, f x, f y
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     private static WeakReference<Context> sContext;
     private TextPaint mTextPaint;
+    // mTextPaint matches the font fields, cleared by updateFont when they change
+    private boolean mTextPaintValid = false;
+    // The shared paint mTextPaint was copied from, text is measured with it
+    private TextPaint mTextPaintSource;
+    // descent - ascent of the font, the height used for text baselines
+    private float mTextHeight;
     private Paint mLinePaint;
+    // fillRect and clearRect replace the pixels of the rect instead of blending into them
+    private Paint mFillRectPaint;
+    private Paint mClearRectPaint;
     private Path mLinePath;
     private Canvas mCanvas = new Canvas();
     private Bitmap mBitmap;
+    // Pixels handed to native without a Java heap copy, see getDataBuffer
+    private ByteBuffer mDataBuffer;
+    // Part of the bitmap drawn since native last read it, see updateDirtyDataBuffer
+    private final Rect mDirtyRect = new Rect();
+    private final int[] mDirtyBounds = new int[4];
+    private final RectF mPathBounds = new RectF();
+    private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
+    // Holds the dirty part of the bitmap while it is copied out, see updateDirtyDataBuffer
+    private Bitmap mDirtyBitmap;
+    private Canvas mDirtyCanvas;
+    // Holds the unpremultiplied image data of _fillImageData until it is drawn at its offset
+    private Bitmap mImageBitmap;
+    // Draws mImageBitmap through a shader, which premultiplies it
+    private Paint mImageBitmapPaint;
+    private Paint mImageDataPaint;
+    // While only text was drawn on a cleared or solid bitmap, the bitmap is a label that may be
+    // in Cocos2dxLabelCache under mLabelKey. The text draws are deferred until native reads the pixels.
+    private boolean mIsLabel = false;
+    private final StringBuilder mLabelKey = new StringBuilder();
+    // Reused between labels, only the first mPendingTextCount are pending
+    private final ArrayList<PendingText> mPendingText = new ArrayList<>();
+    private int mPendingTextCount = 0;
     private int mTextAlign = TEXT_ALIGN_LEFT;
     private int mTextBaseline = TEXT_BASELINE_BOTTOM;
     private int mFillStyleR = 0;
@@ -78,56 +162,66 @@ public class CanvasRenderingContext2DImpl {
     private boolean mIsItalicFont = false;
     private boolean mIsObliqueFont = false;
     private boolean mIsSmallCapsFontVariant = false;
-    private String mLineCap = "butt";
-    private String mLineJoin = "miter";
+    private Paint.Cap mLineCap = Paint.Cap.BUTT;
+    private Paint.Join mLineJoin = Paint.Join.MITER;
+    // Commands written by native, see getCommandBuffer
+    private ByteBuffer mCommandBuffer;
+    // Set while a Cocos2dxCanvasRasterizer worker runs the command buffer, see flushCommandsAsync
+    private boolean mRasterizing = false;
+    private byte[] mStringBuffer;
+
+    // A deferred text draw: the shared font paint plus what fillText and strokeText set on mTextPaint
+    private static class PendingText {
+        String text;
+        float x;
+        float y;
+        float width;
+        TextPaint font;
+        int color;
+        boolean stroke;
+        float strokeWidth;
+        float scaleX;
+    }
 
-    private class Size {
-        Size(float w, float h) {
-            this.width = w;
-            this.height = h;
-        }
+    static void init(Context context) {
+        sContext = new WeakReference<>(context);
+    }
 
-        Size() {
-            this.width = 0;
-            this.height = 0;
-        }
-        public float width;
-        public float height;
+    static void destroy() {
+        sContext = null;
     }
 
-    private class Point {
-        Point(float x, float y) {
-            this.x = x;
-            this.y = y;
-        }
+    private static ConcurrentHashMap<String, Typeface> sTypefaceCache = new ConcurrentHashMap<>();
 
-        Point() {
-            this.x = this.y = 0.0f;
-        }
+    private static class PaintKey {
+        final String fontName;
+        final int fontSize;
+        final int flags;
 
-        Point(Point pt) {
-            this.x = pt.x;
-            this.y = pt.y;
+        PaintKey(String fontName, int fontSize, boolean bold, boolean italic, boolean oblique, boolean smallCaps) {
+            this.fontName = fontName;
+            this.fontSize = fontSize;
+            this.flags = (bold ? 1 : 0) | (italic ? 2 : 0) | (oblique ? 4 : 0) | (smallCaps ? 8 : 0);
         }
 
-        void set(float x, float y) {
-            this.x = x;
-            this.y = y;
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PaintKey)) {
+                return false;
+            }
+            PaintKey key = (PaintKey) o;
+            return fontSize == key.fontSize && flags == key.flags && fontName.equals(key.fontName);
         }
 
-        public float x;
-        public float y;
-    }
-
-    static void init(Context context) {
-        sContext = new WeakReference<>(context);
-    }
-
-    static void destroy() {
-        sContext = null;
+        @Override
+        public int hashCode() {
+            return (fontName.hashCode() * 31 + fontSize) * 31 + flags;
+        }
     }
 
-    private static HashMap<String, Typeface> sTypefaceCache = new HashMap<>();
+    // Configured paints shared by all contexts. They are never modified, contexts copy them into
+    // their own mTextPaint, so switching fonts doesn't repeat the typeface lookup and reflection.
+    private static final ConcurrentHashMap<PaintKey, TextPaint> sPaintCache = new ConcurrentHashMap<>();
 
     // url is a full path started with '@assets/'
     private static void loadTypeface(String familyName, String url) {
@@ -156,6 +250,23 @@ public class CanvasRenderingContext2DImpl {
     // REFINE:: native should clear font cache before exiting game.
     private static void clearTypefaceCache() {
         sTypefaceCache.clear();
+        sPaintCache.clear();
+        Cocos2dxTextMeasureCache.clear();
+        // Labels are keyed by font name, a reloaded font of the same name must not hit old pixels
+        Cocos2dxLabelCache.clear();
+    }
+
+    private static TextPaint getPaint(String fontName, int fontSize, boolean enableBold, boolean enableItalic, boolean obliqueFont, boolean smallCapsFontVariant) {
+        PaintKey key = new PaintKey(fontName, fontSize, enableBold, enableItalic, obliqueFont, smallCapsFontVariant);
+        TextPaint paint = sPaintCache.get(key);
+        if (paint == null) {
+            paint = newPaint(fontName, fontSize, enableBold, enableItalic, obliqueFont, smallCapsFontVariant);
+            TextPaint previous = sPaintCache.putIfAbsent(key, paint);
+            if (previous != null) {
+                paint = previous;
+            }
+        }
+        return paint;
     }
 
     private static TextPaint newPaint(String fontName, int fontSize, boolean enableBold, boolean enableItalic, boolean obliqueFont, boolean smallCapsFontVariant) {
@@ -200,16 +311,19 @@ public class CanvasRenderingContext2DImpl {
         return paint;
     }
 
-    private CanvasRenderingContext2DImpl() {
+    CanvasRenderingContext2DImpl() {
         // Log.d(TAG, "constructor");
     }
 
-    private void recreateBuffer(float w, float h) {
+    void recreateBuffer(float w, float h) {
         // Log.d(TAG, "recreateBuffer:" + w + ", " + h);
-        if (mBitmap != null) {
-            mBitmap.recycle();
+        // The old bitmap may come back reconfigured, mCanvas is pointed at the result below
+        Cocos2dxBitmapPool.put(mBitmap);
+        mBitmap = Cocos2dxBitmapPool.get((int)Math.ceil(w), (int)Math.ceil(h));
+        int dataSize = mBitmap.getWidth() * mBitmap.getHeight() * 4;
+        if (mDataBuffer != null && mDataBuffer.capacity() != dataSize) {
+            mDataBuffer = null;
         }
-        mBitmap = Bitmap.createBitmap((int)Math.ceil(w), (int)Math.ceil(h), Bitmap.Config.ARGB_8888);
         // FIXME: in MIX 2S, its API level is 28, but can not find invokeInstanceMethod. It seems
         // devices may not obey the specification, so comment the codes.
 //        if (Build.VERSION.SDK_INT >= 19) {
@@ -219,28 +333,31 @@ public class CanvasRenderingContext2DImpl {
 //                                                                new Object[]{Boolean.FALSE});
 //        }
         mCanvas.setBitmap(mBitmap);
+        mDirtyRect.set(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
+        startLabel(Color.TRANSPARENT);
     }
 
-    private void beginPath() {
+    void beginPath() {
         if (mLinePath == null) {
             mLinePath = new Path();
         }
         mLinePath.reset();
     }
 
-    private void closePath() {
+    void closePath() {
         mLinePath.close();
     }
 
-    private void moveTo(float x, float y) {
+    void moveTo(float x, float y) {
         mLinePath.moveTo(x, y);
     }
 
-    private void lineTo(float x, float y) {
+    void lineTo(float x, float y) {
         mLinePath.lineTo(x, y);
     }
 
-    private void stroke() {
+    void stroke() {
+        endLabel();
         if (mLinePaint == null) {
             mLinePaint = new Paint();
             mLinePaint.setAntiAlias(true);
@@ -253,40 +370,15 @@ public class CanvasRenderingContext2DImpl {
         mLinePaint.setARGB(mStrokeStyleA, mStrokeStyleR, mStrokeStyleG, mStrokeStyleB);
         mLinePaint.setStyle(Paint.Style.STROKE);
         mLinePaint.setStrokeWidth(mLineWidth);
-        this.setStrokeCap(mLinePaint);
-        this.setStrokeJoin(mLinePaint);
+        mLinePaint.setStrokeCap(mLineCap);
+        mLinePaint.setStrokeJoin(mLineJoin);
         mCanvas.drawPath(mLinePath, mLinePaint);
+        // Miter joins reach up to miter limit (4) * half the line width past the path
+        markPathDirty(mLineWidth * 2);
     }
 
-    private void setStrokeCap(Paint paint) {
-        switch (mLineCap) {
-            case "butt":
-                paint.setStrokeCap(Paint.Cap.BUTT);
-                break;
-            case "round":
-                paint.setStrokeCap(Paint.Cap.ROUND);
-                break;
-            case "square":
-                paint.setStrokeCap(Paint.Cap.SQUARE);
-                break;
-        }
-    }
-
-    private void setStrokeJoin(Paint paint) {
-        switch (mLineJoin) {
-            case "bevel":
-                paint.setStrokeJoin(Paint.Join.BEVEL);
-                break;
-            case "round":
-                paint.setStrokeJoin(Paint.Join.ROUND);
-                break;
-            case "miter":
-                paint.setStrokeJoin(Paint.Join.MITER);
-                break;
-        }
-    }
-
-    private void fill() {
+    void fill() {
+        endLabel();
         if (mLinePaint == null) {
             mLinePaint = new Paint();
         }
@@ -300,33 +392,54 @@ public class CanvasRenderingContext2DImpl {
         mCanvas.drawPath(mLinePath, mLinePaint);
         // workaround: draw a hairline to cover the border
         mLinePaint.setStrokeWidth(0);
-        this.setStrokeCap(mLinePaint);
-        this.setStrokeJoin(mLinePaint);
+        mLinePaint.setStrokeCap(mLineCap);
+        mLinePaint.setStrokeJoin(mLineJoin);
         mLinePaint.setStyle(Paint.Style.STROKE);
         mCanvas.drawPath(mLinePath, mLinePaint);
         mLinePaint.setStrokeWidth(mLineWidth);
+        markPathDirty(0);
     }
 
-    private void setLineCap(String lineCap) {
-        mLineCap = lineCap;
+    void setLineCap(String lineCap) {
+        switch (lineCap) {
+            case "butt":
+                mLineCap = Paint.Cap.BUTT;
+                break;
+            case "round":
+                mLineCap = Paint.Cap.ROUND;
+                break;
+            case "square":
+                mLineCap = Paint.Cap.SQUARE;
+                break;
+        }
     }
 
-    private void setLineJoin(String lineJoin) {
-        mLineJoin = lineJoin;
+    void setLineJoin(String lineJoin) {
+        switch (lineJoin) {
+            case "bevel":
+                mLineJoin = Paint.Join.BEVEL;
+                break;
+            case "round":
+                mLineJoin = Paint.Join.ROUND;
+                break;
+            case "miter":
+                mLineJoin = Paint.Join.MITER;
+                break;
+        }
     }
 
-    private void saveContext() {
+    void saveContext() {
         mCanvas.save();
     }
 
-    private void restoreContext() {
+    void restoreContext() {
         // If there is no saved state, this method should do nothing.
         if (mCanvas.getSaveCount() > 1){
             mCanvas.restore();
         }
     }
 
-    private void rect(float x, float y, float w, float h) {
+    void rect(float x, float y, float w, float h) {
         //        Log.d(TAG, "this: " + this + ", rect: " + x + ", " + y + ", " + w + ", " + h);
         beginPath();
         moveTo(x, y);
@@ -336,99 +449,248 @@ public class CanvasRenderingContext2DImpl {
         closePath();
     }
 
-    private void clearRect(float x, float y, float w, float h) {
+    void clearRect(float x, float y, float w, float h) {
         //        Log.d(TAG, "this: " + this + ", clearRect: " + x + ", " + y + ", " + w + ", " + h);
-        int clearSize = (int)(w * h);
-        int[] clearColor = new int[clearSize];
-        for (int i = 0; i < clearSize; ++i) {
-            clearColor[i] = Color.TRANSPARENT;
+        int left = (int) x;
+        int top = (int) y;
+        int right = left + (int) w;
+        int bottom = top + (int) h;
+        if (coversBitmap(left, top, right, bottom)) {
+            mBitmap.eraseColor(Color.TRANSPARENT);
+            markDirty(left, top, right, bottom);
+            startLabel(Color.TRANSPARENT);
+            return;
         }
-        mBitmap.setPixels(clearColor, 0, (int) w, (int) x, (int) y, (int) w, (int) h);
+        endLabel();
+        if (mClearRectPaint == null) {
+            mClearRectPaint = new Paint();
+            mClearRectPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+        }
+        mCanvas.drawRect(left, top, right, bottom, mClearRectPaint);
+        markDirty(left, top, right, bottom);
+    }
+
+    private boolean coversBitmap(int left, int top, int right, int bottom) {
+        return left <= 0 && top <= 0 && right >= mBitmap.getWidth() && bottom >= mBitmap.getHeight();
     }
 
     private void createTextPaintIfNeeded() {
-        if (mTextPaint == null) {
-            mTextPaint = newPaint(mFontName, (int) mFontSize, mIsBoldFont, mIsItalicFont, mIsObliqueFont, mIsSmallCapsFontVariant);
+        if (!mTextPaintValid) {
+            if (mTextPaint == null) {
+                mTextPaint = new TextPaint();
+            }
+            mTextPaintSource = getPaint(mFontName, (int) mFontSize, mIsBoldFont, mIsItalicFont, mIsObliqueFont, mIsSmallCapsFontVariant);
+            mTextPaint.set(mTextPaintSource);
+            // Use descent & ascent for clipping the transparent region.
+            // So don't use bottom & top which will make text be cut.
+            mTextPaintSource.getFontMetrics(mFontMetrics);
+            mTextHeight = mFontMetrics.descent - mFontMetrics.ascent;
+            mTextPaintValid = true;
         }
     }
 
-    private void fillRect(float x, float y, float w, float h) {
+    void fillRect(float x, float y, float w, float h) {
         // Log.d(TAG, "fillRect: " + x + ", " + y + ", " + ", " + w + ", " + h);
-        int pixelValue = (mFillStyleA & 0xff) << 24 | (mFillStyleR & 0xff) << 16 | (mFillStyleG & 0xff) << 8 | (mFillStyleB & 0xff);
-        int fillSize = (int)(w * h);
-        int[] fillColors = new int[fillSize];
-        for (int i = 0; i < fillSize; ++i) {
-            fillColors[i] = pixelValue;
+        int left = (int) x;
+        int top = (int) y;
+        int right = left + (int) w;
+        int bottom = top + (int) h;
+        if (coversBitmap(left, top, right, bottom)) {
+            int color = Color.argb(mFillStyleA, mFillStyleR, mFillStyleG, mFillStyleB);
+            mBitmap.eraseColor(color);
+            markDirty(left, top, right, bottom);
+            startLabel(color);
+            return;
         }
-        mBitmap.setPixels(fillColors, 0, (int) w, (int)x, (int)y, (int)w, (int)h);
-    }
-
-    private void scaleX(TextPaint textPaint, String text, float maxWidth) {
-        if(maxWidth < Float.MIN_VALUE) return;
-        float measureWidth = this.measureText(text);
-        if((measureWidth - maxWidth) < Float.MIN_VALUE) return;
-        float scaleX = maxWidth/measureWidth;
-        textPaint.setTextScaleX(scaleX);
+        endLabel();
+        if (mFillRectPaint == null) {
+            mFillRectPaint = new Paint();
+            mFillRectPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        }
+        mFillRectPaint.setARGB(mFillStyleA, mFillStyleR, mFillStyleG, mFillStyleB);
+        mCanvas.drawRect(left, top, right, bottom, mFillRectPaint);
+        markDirty(left, top, right, bottom);
     }
 
-    private void fillText(String text, float x, float y, float maxWidth) {
+    void fillText(String text, float x, float y, float maxWidth) {
 //        Log.d(TAG, "this: " + this + ", fillText: " + text + ", " + x + ", " + y + ", " + ", " + maxWidth);
         createTextPaintIfNeeded();
         mTextPaint.setARGB(mFillStyleA, mFillStyleR, mFillStyleG, mFillStyleB);
         mTextPaint.setStyle(Paint.Style.FILL);
-        scaleX(mTextPaint, text, maxWidth);
-        Point pt = convertDrawPoint(new Point(x, y), text);
-        mCanvas.drawText(text, pt.x, pt.y, mTextPaint);
+        drawText(text, x, y, maxWidth, false);
     }
 
-    private void strokeText(String text, float x, float y, float maxWidth) {
+    void strokeText(String text, float x, float y, float maxWidth) {
         // Log.d(TAG, "strokeText: " + text + ", " + x + ", " + y + ", " + ", " + maxWidth);
         createTextPaintIfNeeded();
         mTextPaint.setARGB(mStrokeStyleA, mStrokeStyleR, mStrokeStyleG, mStrokeStyleB);
         mTextPaint.setStyle(Paint.Style.STROKE);
         mTextPaint.setStrokeWidth(mLineWidth);
-        scaleX(mTextPaint, text, maxWidth);
-        Point pt = convertDrawPoint(new Point(x, y), text);
-        mCanvas.drawText(text, pt.x, pt.y, mTextPaint);
+        drawText(text, x, y, maxWidth, true);
     }
 
-    private float measureText(String text) {
-        createTextPaintIfNeeded();
-        float ret = mTextPaint.measureText(text);
-        // Log.d(TAG, "measureText: " + text + ", return: " + ret);
-        return ret;
+    // Draws with mTextPaint, or defers the draw while the bitmap can still be a cached label.
+    // The text is measured once, for maxWidth, the alignment and the dirty region.
+    private void drawText(String text, float x, float y, float maxWidth, boolean stroke) {
+        float width = measureText(text);
+        float scaleX = 1.0f;
+        if (maxWidth >= Float.MIN_VALUE && (width - maxWidth) >= Float.MIN_VALUE) {
+            scaleX = maxWidth / width;
+            width = maxWidth;
+        }
+        mTextPaint.setTextScaleX(scaleX);
+
+        // The point (x, y) is located at left-bottom position.
+        // Need to adjust it according 'text align' & 'text base line'.
+        if (mTextAlign == TEXT_ALIGN_CENTER) {
+            x -= width / 2;
+        } else if (mTextAlign == TEXT_ALIGN_RIGHT) {
+            x -= width;
+        }
+        if (mTextBaseline == TEXT_BASELINE_TOP) {
+            y += mTextHeight;
+        } else if (mTextBaseline == TEXT_BASELINE_MIDDLE) {
+            y += mTextHeight / 2;
+        }
+
+        if (!mIsLabel) {
+            mCanvas.drawText(text, x, y, mTextPaint);
+            markTextDirty(mTextPaint, width, x, y);
+            return;
+        }
+
+        if (mPendingTextCount == mPendingText.size()) {
+            mPendingText.add(new PendingText());
+        }
+        PendingText pending = mPendingText.get(mPendingTextCount++);
+        pending.text = text;
+        pending.x = x;
+        pending.y = y;
+        pending.width = width;
+        pending.font = mTextPaintSource;
+        pending.color = mTextPaint.getColor();
+        pending.stroke = stroke;
+        pending.strokeWidth = mLineWidth;
+        pending.scaleX = scaleX;
+
+        // Floats are keyed by their bits, appending them as decimals would allocate
+        mLabelKey.append(stroke ? 'S' : 'F').append(LABEL_KEY_SEPARATOR)
+                .append(mFontName).append(LABEL_KEY_SEPARATOR)
+                .append(Float.floatToIntBits(mFontSize))
+                .append(mIsBoldFont ? 'b' : '-').append(mIsItalicFont ? 'i' : '-')
+                .append(mIsObliqueFont ? 'o' : '-').append(mIsSmallCapsFontVariant ? 'c' : '-')
+                .append(LABEL_KEY_SEPARATOR).append(pending.color);
+        if (stroke) {
+            mLabelKey.append(LABEL_KEY_SEPARATOR).append(Float.floatToIntBits(mLineWidth));
+        }
+        mLabelKey.append(LABEL_KEY_SEPARATOR).append(Float.floatToIntBits(scaleX))
+                .append(LABEL_KEY_SEPARATOR).append(Float.floatToIntBits(x))
+                .append(LABEL_KEY_SEPARATOR).append(Float.floatToIntBits(y))
+                .append(LABEL_KEY_SEPARATOR).append(text).append(LABEL_KEY_SEPARATOR);
+    }
+
+    // The bitmap is cleared or filled with one color, text drawn from now on can be cached
+    private void startLabel(int background) {
+        clearPendingText();
+        mIsLabel = true;
+        mLabelKey.setLength(0);
+        mLabelKey.append(mBitmap.getWidth()).append('x').append(mBitmap.getHeight())
+                .append(LABEL_KEY_SEPARATOR).append(background).append(LABEL_KEY_SEPARATOR);
+    }
+
+    // Called before drawing anything but text, the deferred text is drawn first
+    private void endLabel() {
+        if (mIsLabel) {
+            drawPendingText();
+            mIsLabel = false;
+        }
+    }
+
+    // Called before native reads the pixels, a cached label replaces the deferred text draws
+    private void resolveLabel() {
+        if (!mIsLabel || mPendingTextCount == 0) {
+            return;
+        }
+        String key = mLabelKey.toString();
+        if (Cocos2dxLabelCache.copyTo(key, mBitmap)) {
+            clearPendingText();
+            markDirty(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
+        } else {
+            drawPendingText();
+            Cocos2dxLabelCache.put(key, mBitmap);
+        }
+        mIsLabel = false;
     }
 
-    private Size measureTextReturnSize(String text) {
+    // Draws with mTextPaint, fillText and strokeText set its color, style and scale again anyway
+    private void drawPendingText() {
+        TextPaint font = mTextPaintSource;
+        for (int i = 0; i < mPendingTextCount; ++i) {
+            PendingText pending = mPendingText.get(i);
+            if (pending.font != font) {
+                font = pending.font;
+                mTextPaint.set(font);
+            }
+            mTextPaint.setColor(pending.color);
+            mTextPaint.setStyle(pending.stroke ? Paint.Style.STROKE : Paint.Style.FILL);
+            if (pending.stroke) {
+                mTextPaint.setStrokeWidth(pending.strokeWidth);
+            }
+            mTextPaint.setTextScaleX(pending.scaleX);
+            mCanvas.drawText(pending.text, pending.x, pending.y, mTextPaint);
+            markTextDirty(mTextPaint, pending.width, pending.x, pending.y);
+        }
+        if (font != mTextPaintSource) {
+            mTextPaint.set(mTextPaintSource);
+        }
+        clearPendingText();
+    }
+
+    private void clearPendingText() {
+        for (int i = 0; i < mPendingTextCount; ++i) {
+            PendingText pending = mPendingText.get(i);
+            pending.text = null;
+            pending.font = null;
+        }
+        mPendingTextCount = 0;
+    }
+
+    // Width without the maxWidth scale, the shared source paint is never scaled
+    float measureText(String text) {
         createTextPaintIfNeeded();
-        Paint.FontMetrics fm = mTextPaint.getFontMetrics();
-        // Use descent & ascent for clipping the transparent region.
-        // So don't use bottom & top which will make text be cut.
-        return new Size(measureText(text), fm.descent - fm.ascent);
+        float ret = Cocos2dxTextMeasureCache.measureText(mTextPaintSource, text);
+        // Log.d(TAG, "measureText: " + text + ", return: " + ret);
+        return ret;
     }
 
-    private void updateFont(String fontName, float fontSize, boolean bold, boolean italic, boolean oblique, boolean smallCaps) {
+    void updateFont(String fontName, float fontSize, boolean bold, boolean italic, boolean oblique, boolean smallCaps) {
         // Log.d(TAG, "updateFont: " + fontName + ", " + fontSize);
+        if (mTextPaintValid && fontName.equals(mFontName) && (int) fontSize == (int) mFontSize
+                && bold == mIsBoldFont && italic == mIsItalicFont
+                && oblique == mIsObliqueFont && smallCaps == mIsSmallCapsFontVariant) {
+            mFontSize = fontSize;
+            return;
+        }
         mFontName = fontName;
         mFontSize = fontSize;
         mIsBoldFont = bold;
         mIsItalicFont = italic;
         mIsObliqueFont = oblique;
         mIsSmallCapsFontVariant = smallCaps;
-        mTextPaint = null; // Reset paint to re-create paint object in createTextPaintIfNeeded
+        mTextPaintValid = false; // Reset paint in createTextPaintIfNeeded
     }
 
-    private void setTextAlign(int align) {
+    void setTextAlign(int align) {
         // Log.d(TAG, "setTextAlign: " + align);
         mTextAlign = align;
     }
 
-    private void setTextBaseline(int baseline) {
+    void setTextBaseline(int baseline) {
         // Log.d(TAG, "setTextBaseline: " + baseline);
         mTextBaseline = baseline;
     }
 
-    private void setFillStyle(float r, float g, float b, float a) {
+    void setFillStyle(float r, float g, float b, float a) {
         // Log.d(TAG, "setFillStyle: " + r + ", " + g + ", " + b + ", " + a);
         mFillStyleR = (int)(r * 255.0f);
         mFillStyleG = (int)(g * 255.0f);
@@ -436,7 +698,7 @@ public class CanvasRenderingContext2DImpl {
         mFillStyleA = (int)(a * 255.0f);
     }
 
-    private void setStrokeStyle(float r, float g, float b, float a) {
+    void setStrokeStyle(float r, float g, float b, float a) {
         // Log.d(TAG, "setStrokeStyle: " + r + ", " + g + ", " + b + ", " + a);
         mStrokeStyleR = (int)(r * 255.0f);
         mStrokeStyleG = (int)(g * 255.0f);
@@ -444,62 +706,368 @@ public class CanvasRenderingContext2DImpl {
         mStrokeStyleA = (int)(a * 255.0f);
     }
 
-    private void setLineWidth(float lineWidth) {
+    void setLineWidth(float lineWidth) {
         mLineWidth = lineWidth;
     }
 
-    private void _fillImageData(byte[] imageData, float imageWidth, float imageHeight, float offsetX, float offsetY) {
-        Log.d(TAG, "_fillImageData: ");
-        int fillSize = (int) (imageWidth * imageHeight);
-        int[] fillColors = new int[fillSize];
-        int r, g, b, a;
-        for (int i = 0; i < fillSize; ++i) {
-            // imageData Pixel (RGBA) -> fillColors int (ARGB)
-            r = ((int)imageData[4 * i + 0]) & 0xff;
-            g = ((int)imageData[4 * i + 1]) & 0xff;
-            b = ((int)imageData[4 * i + 2]) & 0xff;
-            a = ((int)imageData[4 * i + 3]) & 0xff;
-            fillColors[i] = (a & 0xff) << 24 | (r & 0xff) << 16 | (g & 0xff) << 8 | (b & 0xff);
+    // imageData is a direct buffer of unpremultiplied RGBA owned by native, it replaces the
+    // pixels at the offset. It is read from its position, which is left unchanged.
+    void _fillImageData(ByteBuffer imageData, float imageWidth, float imageHeight, float offsetX, float offsetY) {
+        endLabel();
+        int width = (int) imageWidth;
+        int height = (int) imageHeight;
+        if (width <= 0 || height <= 0 || imageData.remaining() < (long) width * height * 4) {
+            Log.e(TAG, "_fillImageData: invalid image data " + imageData.remaining() + " for " + width + "x" + height);
+            return;
         }
-        mBitmap.setPixels(fillColors, 0, (int) imageWidth, (int) offsetX, (int) offsetY, (int) imageWidth, (int) imageHeight);
+
+        int position = imageData.position();
+        drawImageData(imageData, width, height, (int) offsetX, (int) offsetY);
+        imageData.position(position);
     }
 
-    private Point convertDrawPoint(final Point point, String text) {
-        // The parameter 'point' is located at left-bottom position.
-        // Need to adjust 'point' according 'text align' & 'text base line'.
-        Point ret = new Point(point);
-        Size textSize = measureTextReturnSize(text);
-        // Log.d(TAG,"textSize: " + textSize.width + ", " + textSize.height);
+    // Draws bitmaps unchanged, replacing what is below them
+    private Paint getCopyPaint() {
+        if (mImageDataPaint == null) {
+            mImageDataPaint = new Paint();
+            mImageDataPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        }
+        return mImageDataPaint;
+    }
 
-        if (mTextAlign == TEXT_ALIGN_CENTER)
-        {
-            ret.x -= textSize.width / 2;
+    // Copies the unpremultiplied RGBA at the position of pixels as is into an unpremultiplied
+    // bitmap and draws it at x, y. Canvas refuses to draw unpremultiplied bitmaps, a bitmap shader
+    // premultiplies them while it samples.
+    private void drawImageData(ByteBuffer pixels, int width, int height, int x, int y) {
+        if (mImageBitmap == null || mImageBitmap.getWidth() != width || mImageBitmap.getHeight() != height) {
+            if (mImageBitmap != null) {
+                mImageBitmap.setPremultiplied(true);
+                Cocos2dxBitmapPool.put(mImageBitmap);
+            }
+            mImageBitmap = Cocos2dxBitmapPool.get(width, height);
+            mImageBitmap.setPremultiplied(false);
+            if (mImageBitmapPaint == null) {
+                mImageBitmapPaint = new Paint();
+                mImageBitmapPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+            }
+            mImageBitmapPaint.setShader(new BitmapShader(mImageBitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
         }
-        else if (mTextAlign == TEXT_ALIGN_RIGHT)
-        {
-            ret.x -= textSize.width;
+        mImageBitmap.copyPixelsFromBuffer(pixels);
+
+        mCanvas.save();
+        mCanvas.translate(x, y);
+        mCanvas.drawRect(0, 0, width, height, mImageBitmapPaint);
+        mCanvas.restore();
+        markDirty(x, y, x + width, y + height);
+    }
+
+    private void markDirty(int left, int top, int right, int bottom) {
+        mDirtyRect.union(left, top, right, bottom);
+    }
+
+    private void markDirty(float left, float top, float right, float bottom) {
+        markDirty((int) Math.floor(left), (int) Math.floor(top), (int) Math.ceil(right), (int) Math.ceil(bottom));
+    }
+
+    // outset covers the stroke around the path, plus a pixel of antialiasing
+    private void markPathDirty(float outset) {
+        mLinePath.computeBounds(mPathBounds, true);
+        outset += 1;
+        markDirty(mPathBounds.left - outset, mPathBounds.top - outset,
+                mPathBounds.right + outset, mPathBounds.bottom + outset);
+    }
+
+    // x, y is the baseline origin the text was drawn at, width its scaled advance
+    private void markTextDirty(Paint paint, float width, float x, float y) {
+        paint.getFontMetrics(mFontMetrics);
+        // Italic and oblique glyphs overhang their advance, strokes reach past the outline
+        float outsetX = paint.getTextSize() / 4 + paint.getStrokeWidth() + 1;
+        float outsetY = paint.getStrokeWidth() + 1;
+        markDirty(x - outsetX, y + mFontMetrics.top - outsetY,
+                x + width + outsetX, y + mFontMetrics.bottom + outsetY);
+    }
+
+    /**
+     * Direct buffer of at least capacity bytes in native order. Native encodes the canvas calls
+     * of a frame at its address, as described at CMD_BEGIN_PATH, and runs them all with one
+     * flushCommands call instead of one JNI call each. The buffer is replaced when it has to
+     * grow, so its address must be looked up again after each call.
+     */
+    private ByteBuffer getCommandBuffer(int capacity) {
+        if (mCommandBuffer == null || mCommandBuffer.capacity() < capacity) {
+            mCommandBuffer = ByteBuffer.allocateDirect(Math.max(capacity, 4096));
+            mCommandBuffer.order(ByteOrder.nativeOrder());
         }
+        return mCommandBuffer;
+    }
 
-        if (mTextBaseline == TEXT_BASELINE_TOP)
-        {
-            ret.y += textSize.height;
+    // Runs the first length bytes of the command buffer
+    private void flushCommands(int length) {
+        if (!prepareCommands(length, "flushCommands")) {
+            return;
         }
-        else if (mTextBaseline == TEXT_BASELINE_MIDDLE)
-        {
-            ret.y += textSize.height / 2;
+        executeCommands(mCommandBuffer);
+    }
+
+    /**
+     * Like flushCommands, but the commands run on a Cocos2dxCanvasRasterizer worker and the
+     * pixels are read into the buffer of getDataBuffer there. Then nativeOnRasterized(requestId)
+     * is called on the GL thread, until then native must not call into this context.
+     */
+    private void flushCommandsAsync(int length, final int requestId) {
+        if (!prepareCommands(length, "flushCommandsAsync")) {
+            return;
         }
+        mRasterizing = true;
+        Cocos2dxCanvasRasterizer.submit(this, mCommandBuffer, new Cocos2dxCanvasRasterizer.Callback() {
+            @Override
+            public void onRasterized(ByteBuffer pixels, int width, int height) {
+                mRasterizing = false;
+                Cocos2dxCanvasRasterizer.nativeOnRasterized(requestId, pixels, width, height);
+            }
+        });
+    }
 
-        return ret;
+    private boolean prepareCommands(int length, String caller) {
+        if (mRasterizing) {
+            Log.e(TAG, caller + ": the context is still rasterizing");
+            return false;
+        }
+        if (mCommandBuffer == null || length > mCommandBuffer.capacity()) {
+            Log.e(TAG, caller + ": " + length + " bytes exceed the command buffer");
+            return false;
+        }
+        mCommandBuffer.clear();
+        mCommandBuffer.limit(length);
+        return true;
+    }
+
+    // Runs on a Cocos2dxCanvasRasterizer worker, returns the buffer of getDataBuffer
+    ByteBuffer rasterize(ByteBuffer commands) {
+        executeCommands(commands);
+        if (mBitmap == null) {
+            return null;
+        }
+        updateDataBuffer();
+        return getDataBuffer();
+    }
+
+    int getWidth() {
+        return mBitmap == null ? 0 : mBitmap.getWidth();
+    }
+
+    int getHeight() {
+        return mBitmap == null ? 0 : mBitmap.getHeight();
+    }
+
+    void executeCommands(ByteBuffer commands) {
+        try {
+            while (commands.hasRemaining()) {
+                int command = commands.get();
+                switch (command) {
+                    case CMD_BEGIN_PATH:
+                        beginPath();
+                        break;
+                    case CMD_CLOSE_PATH:
+                        closePath();
+                        break;
+                    case CMD_MOVE_TO:
+                        moveTo(commands.getFloat(), commands.getFloat());
+                        break;
+                    case CMD_LINE_TO:
+                        lineTo(commands.getFloat(), commands.getFloat());
+                        break;
+                    case CMD_STROKE:
+                        stroke();
+                        break;
+                    case CMD_FILL:
+                        fill();
+                        break;
+                    case CMD_SET_LINE_CAP:
+                        mLineCap = LINE_CAPS[commands.getInt()];
+                        break;
+                    case CMD_SET_LINE_JOIN:
+                        mLineJoin = LINE_JOINS[commands.getInt()];
+                        break;
+                    case CMD_SAVE:
+                        saveContext();
+                        break;
+                    case CMD_RESTORE:
+                        restoreContext();
+                        break;
+                    case CMD_RECT:
+                        rect(commands.getFloat(), commands.getFloat(), commands.getFloat(), commands.getFloat());
+                        break;
+                    case CMD_CLEAR_RECT:
+                        clearRect(commands.getFloat(), commands.getFloat(), commands.getFloat(), commands.getFloat());
+                        break;
+                    case CMD_FILL_RECT:
+                        fillRect(commands.getFloat(), commands.getFloat(), commands.getFloat(), commands.getFloat());
+                        break;
+                    case CMD_FILL_TEXT:
+                        fillText(getString(commands), commands.getFloat(), commands.getFloat(), commands.getFloat());
+                        break;
+                    case CMD_STROKE_TEXT:
+                        strokeText(getString(commands), commands.getFloat(), commands.getFloat(), commands.getFloat());
+                        break;
+                    case CMD_UPDATE_FONT: {
+                        String name = getString(commands);
+                        float size = commands.getFloat();
+                        int flags = commands.getInt();
+                        updateFont(name, size, (flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0, (flags & 8) != 0);
+                        break;
+                    }
+                    case CMD_SET_TEXT_ALIGN:
+                        setTextAlign(commands.getInt());
+                        break;
+                    case CMD_SET_TEXT_BASELINE:
+                        setTextBaseline(commands.getInt());
+                        break;
+                    case CMD_SET_FILL_STYLE:
+                        setFillStyle(commands.getFloat(), commands.getFloat(), commands.getFloat(), commands.getFloat());
+                        break;
+                    case CMD_SET_STROKE_STYLE:
+                        setStrokeStyle(commands.getFloat(), commands.getFloat(), commands.getFloat(), commands.getFloat());
+                        break;
+                    case CMD_SET_LINE_WIDTH:
+                        setLineWidth(commands.getFloat());
+                        break;
+                    case CMD_RECREATE_BUFFER:
+                        recreateBuffer(commands.getFloat(), commands.getFloat());
+                        break;
+                    case CMD_FILL_IMAGE_DATA:
+                        fillImageData(commands);
+                        break;
+                    default:
+                        Log.e(TAG, "executeCommands: unknown command " + command + " at " + (commands.position() - 1));
+                        return;
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            Log.e(TAG, "executeCommands: truncated or invalid command buffer: " + e.toString());
+        }
+    }
+
+    private String getString(ByteBuffer commands) {
+        int length = commands.getInt();
+        // Checked before the string buffer grows to a corrupt length
+        if (length < 0 || length > commands.remaining()) {
+            throw new IllegalArgumentException("string of " + length + " bytes, " + commands.remaining() + " left");
+        }
+        if (mStringBuffer == null || mStringBuffer.length < length) {
+            mStringBuffer = new byte[Math.max(length, 256)];
+        }
+        commands.get(mStringBuffer, 0, length);
+        return new String(mStringBuffer, 0, length, UTF_8);
+    }
+
+    private void fillImageData(ByteBuffer commands) {
+        int length = commands.getInt();
+        if (length < 0 || length > commands.remaining() - 16) {
+            throw new IllegalArgumentException("image data of " + length + " bytes, " + commands.remaining() + " left");
+        }
+        int end = commands.position() + length;
+        int width = (int) commands.getFloat(end);
+        int height = (int) commands.getFloat(end + 4);
+        int x = (int) commands.getFloat(end + 8);
+        int y = (int) commands.getFloat(end + 12);
+        long size = (long) width * height * 4;
+        if (width <= 0 || height <= 0 || length < size) {
+            Log.e(TAG, "fillImageData: invalid image data " + length + " for " + width + "x" + height);
+            commands.position(end + 16);
+            return;
+        }
+
+        endLabel();
+        // Reads the pixels straight from the command buffer
+        drawImageData(commands, width, height, x, y);
+        commands.position(end + 16);
+    }
+
+    /**
+     * Direct buffer for the pixels of the bitmap, filled by updateDataBuffer. It stays the same
+     * object until recreateBuffer changes the dimensions, so native only has to look up its
+     * address after recreateBuffer.
+     */
+    private ByteBuffer getDataBuffer() {
+        if (mBitmap == null) {
+            Log.e(TAG, "getDataBuffer return null");
+            return null;
+        }
+        if (mDataBuffer == null) {
+            mDataBuffer = ByteBuffer.allocateDirect(mBitmap.getWidth() * mBitmap.getHeight() * 4);
+            mDataBuffer.order(ByteOrder.nativeOrder());
+        }
+        return mDataBuffer;
+    }
+
+    // Copies the bitmap into the buffer of getDataBuffer, native then reads it in place
+    private void updateDataBuffer() {
+        ByteBuffer buffer = getDataBuffer();
+        if (buffer != null) {
+            resolveLabel();
+            buffer.rewind();
+            mBitmap.copyPixelsToBuffer(buffer);
+            buffer.rewind();
+            mDirtyRect.setEmpty();
+        }
+    }
+
+    /**
+     * Fills the buffer of getDataBuffer with only the pixels drawn since the last update, rows
+     * packed one after another, and returns their bounds as {x, y, width, height}. Width and
+     * height are 0 if nothing was drawn. The returned array is reused by the next call.
+     */
+    private int[] updateDirtyDataBuffer() {
+        ByteBuffer buffer = getDataBuffer();
+        if (buffer != null) {
+            resolveLabel();
+        }
+        if (buffer == null || !mDirtyRect.intersect(0, 0, mBitmap.getWidth(), mBitmap.getHeight())) {
+            mDirtyRect.setEmpty();
+            mDirtyBounds[0] = mDirtyBounds[1] = mDirtyBounds[2] = mDirtyBounds[3] = 0;
+            return mDirtyBounds;
+        }
+
+        buffer.rewind();
+        int width = mDirtyRect.width();
+        int height = mDirtyRect.height();
+        if (width == mBitmap.getWidth() && height == mBitmap.getHeight()) {
+            mBitmap.copyPixelsToBuffer(buffer);
+        } else {
+            // Only the dirty part is read from the bitmap: it is drawn into a bitmap of its own
+            // size, whose pixels are the packed rows
+            if (mDirtyBitmap == null || mDirtyBitmap.getWidth() != width || mDirtyBitmap.getHeight() != height) {
+                Cocos2dxBitmapPool.put(mDirtyBitmap);
+                mDirtyBitmap = Cocos2dxBitmapPool.get(width, height);
+                if (mDirtyCanvas == null) {
+                    mDirtyCanvas = new Canvas();
+                }
+                mDirtyCanvas.setBitmap(mDirtyBitmap);
+            }
+            mDirtyCanvas.drawBitmap(mBitmap, -mDirtyRect.left, -mDirtyRect.top, getCopyPaint());
+            mDirtyBitmap.copyPixelsToBuffer(buffer);
+        }
+        buffer.rewind();
+
+        mDirtyBounds[0] = mDirtyRect.left;
+        mDirtyBounds[1] = mDirtyRect.top;
+        mDirtyBounds[2] = mDirtyRect.width();
+        mDirtyBounds[3] = mDirtyRect.height();
+        mDirtyRect.setEmpty();
+        return mDirtyBounds;
     }
 
     private byte[] getDataRef() {
 //        Log.d(TAG, "this: " + this + ", getDataRef ...");
         if (mBitmap != null) {
+            resolveLabel();
             final int len = mBitmap.getWidth() * mBitmap.getHeight() * 4;
             final byte[] pixels = new byte[len];
             final ByteBuffer buf = ByteBuffer.wrap(pixels);
             buf.order(ByteOrder.nativeOrder());
             mBitmap.copyPixelsToBuffer(buf);
+            mDirtyRect.setEmpty();
 
             return pixels;
         }
@@ -368,6 +368,9 @@ public abstract class Cocos2dxActivity extends Activity implements Cocos2dxHelpe
         
         Cocos2dxHelper.init(this);
         CanvasRenderingContext2DImpl.init(this);
+        // Opt-in: the cache is process wide and also caches the app's own HttpURLConnections
+        Cocos2dxHttpCache.install(this, getHttpCacheSize());
+        Cocos2dxHttpPrewarm.prewarm(getPrewarmHosts(), getPrewarmSSLFilename());
         
         this.mGLContextAttrs = getGLContextAttrs();
         this.init();
@@ -422,10 +425,26 @@ public abstract class Cocos2dxActivity extends Activity implements Cocos2dxHelpe
         if(gainAudioFocus)
             Cocos2dxAudioFocusManager.unregisterAudioFocusListener(this);
         Cocos2dxHelper.onPause();
+        Cocos2dxHttpCache.flush();
+        Cocos2dxEventQueue.flush();
         mGLSurfaceView.onPause();
         mCocos2dxOrientationHelper.onPause();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        Cocos2dxBitmapPool.trimMemory(level);
+        Cocos2dxLabelCache.trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        Cocos2dxBitmapPool.clear();
+        Cocos2dxLabelCache.clear();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -500,6 +519,22 @@ public abstract class Cocos2dxActivity extends Activity implements Cocos2dxHelpe
     // Protected and private methods
     // ===========================================================
 
+    // Size in bytes of the HTTP disk cache, see Cocos2dxHttpCache. 0 leaves it off. The cache
+    // is installed for the whole process, so HttpURLConnections outside the engine use it too.
+    protected long getHttpCacheSize() {
+        return 0;
+    }
+
+    // Hosts whose DNS and connections are warmed up while the game loads, see Cocos2dxHttpPrewarm
+    protected String[] getPrewarmHosts() {
+        return null;
+    }
+
+    // CA file the game's requests to the prewarmed hosts verify with, null for the default trust
+    protected String getPrewarmSSLFilename() {
+        return null;
+    }
+
     protected void onLoadNativeLibraries() {
         try {
             ApplicationInfo ai = getPackageManager().getApplicationInfo(getPackageName(), PackageManager.GET_META_DATA);
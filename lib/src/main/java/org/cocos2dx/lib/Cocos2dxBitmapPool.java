@@ -0,0 +1,180 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of ARGB_8888 bitmaps shared by all CanvasRenderingContext2DImpl instances.
+ *
+ * A resized canvas returns its old bitmap here and takes the next one from here, so labels that
+ * change size every frame reuse their backing stores instead of allocating new ones. Bitmaps
+ * are grouped by allocation size; a request is served by the smallest bitmap that is large
+ * enough but no more than MAX_WASTE times the needed size, reconfigured to the new dimensions.
+ * The pooled bytes are bounded by a budget, the oldest bitmaps are recycled first. A bitmap
+ * larger than a quarter of the budget, such as a 1024x1024 canvas, is pooled too, but it
+ * replaces the large bitmap already pooled, so it never pushes out more than one of its kind.
+ */
+public class Cocos2dxBitmapPool {
+    private static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_WASTE = 4;
+    // Bitmaps larger than the budget divided by this are large, at most one of them is pooled
+    private static final int LARGE_SHARE = 4;
+
+    // allocation size -> pooled bitmaps of that size
+    private static final TreeMap<Integer, ArrayList<Bitmap>> sBuckets = new TreeMap<>();
+    // Pooled bitmaps, the oldest first
+    private static final ArrayList<Bitmap> sOrder = new ArrayList<>();
+    private static long sMaxBytes = DEFAULT_MAX_BYTES;
+    private static long sBytes = 0;
+    private static long sHits = 0;
+    private static long sMisses = 0;
+    private static long sEvictions = 0;
+
+    public static synchronized void setMaxBytes(long maxBytes) {
+        sMaxBytes = Math.max(0, maxBytes);
+        trimTo(sMaxBytes);
+    }
+
+    public static synchronized void clear() {
+        trimTo(0);
+    }
+
+    /**
+     * Releases pooled bitmaps for a ComponentCallbacks2 trim level: all of them once the app is
+     * in the background or memory is critical, half of the budget when memory runs low.
+     */
+    public static synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimTo(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(sMaxBytes / 2);
+        }
+    }
+
+    /**
+     * @return {hits, misses, evictions, entries, bytes}
+     */
+    public static synchronized long[] getStats() {
+        return new long[] { sHits, sMisses, sEvictions, sOrder.size(), sBytes };
+    }
+
+    public static synchronized void resetStats() {
+        sHits = 0;
+        sMisses = 0;
+        sEvictions = 0;
+    }
+
+    // Returns a transparent ARGB_8888 bitmap of the given size
+    static Bitmap get(int width, int height) {
+        Bitmap bitmap = take(width * height * 4);
+        if (bitmap != null) {
+            try {
+                bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            } catch (IllegalArgumentException e) {
+                bitmap.recycle();
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    // Hands a bitmap that is no longer drawn into over to the pool
+    static void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        synchronized (Cocos2dxBitmapPool.class) {
+            if (bitmap.isMutable() && size <= sMaxBytes) {
+                if (size > sMaxBytes / LARGE_SHARE) {
+                    evictLarge();
+                }
+                ArrayList<Bitmap> bucket = sBuckets.get(size);
+                if (bucket == null) {
+                    bucket = new ArrayList<>();
+                    sBuckets.put(size, bucket);
+                }
+                bucket.add(bitmap);
+                sOrder.add(bitmap);
+                sBytes += size;
+                trimTo(sMaxBytes);
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    private static synchronized Bitmap take(int size) {
+        Map.Entry<Integer, ArrayList<Bitmap>> entry = sBuckets.ceilingEntry(size);
+        if (entry == null || entry.getKey() > (long) size * MAX_WASTE) {
+            sMisses++;
+            return null;
+        }
+        sHits++;
+        ArrayList<Bitmap> bucket = entry.getValue();
+        Bitmap bitmap = bucket.remove(bucket.size() - 1);
+        if (bucket.isEmpty()) {
+            sBuckets.remove(entry.getKey());
+        }
+        sOrder.remove(bitmap);
+        sBytes -= entry.getKey();
+        return bitmap;
+    }
+
+    private static void trimTo(long maxBytes) {
+        while (sBytes > maxBytes && !sOrder.isEmpty()) {
+            evict(sOrder.get(0));
+        }
+    }
+
+    private static void evictLarge() {
+        int largeSize = (int) Math.min(Integer.MAX_VALUE, sMaxBytes / LARGE_SHARE);
+        Map.Entry<Integer, ArrayList<Bitmap>> entry;
+        while ((entry = sBuckets.higherEntry(largeSize)) != null) {
+            evict(entry.getValue().get(0));
+        }
+    }
+
+    private static void evict(Bitmap bitmap) {
+        sOrder.remove(bitmap);
+        int size = bitmap.getAllocationByteCount();
+        ArrayList<Bitmap> bucket = sBuckets.get(size);
+        bucket.remove(bitmap);
+        if (bucket.isEmpty()) {
+            sBuckets.remove(size);
+        }
+        sBytes -= size;
+        sEvictions++;
+        bitmap.recycle();
+    }
+}
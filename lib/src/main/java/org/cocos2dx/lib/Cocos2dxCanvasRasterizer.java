@@ -0,0 +1,115 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs canvas command buffers on worker threads instead of the GL thread.
+ *
+ * Rasterizing many labels at once, on scene load or after a language switch, would otherwise
+ * stall the frames in between. Each job runs the commands of one context, see
+ * CanvasRenderingContext2DImpl.flushCommands for the format, and reads its pixels into the
+ * context's data buffer. The callback then runs on the GL thread. Jobs of different contexts
+ * run in parallel; a context must not be used by anyone else until its callback ran. The
+ * caches shared by all contexts (paints, text widths, labels, bitmaps) are thread safe.
+ */
+public class Cocos2dxCanvasRasterizer {
+    private static final String TAG = "Cocos2dxCanvasRasterizer";
+    private static final int THREAD_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    public interface Callback {
+        // Runs on the GL thread. pixels is the RGBA data buffer of the context, null on errors.
+        void onRasterized(ByteBuffer pixels, int width, int height);
+    }
+
+    private static ExecutorService sExecutor = null;
+
+    private static synchronized ExecutorService getExecutor() {
+        if (null == sExecutor) {
+            sExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Cocos2dxCanvas-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    // Below the GL thread, the frames come first
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Runs commands on context in a worker thread. The returned future completes with the
+     * pixels once they are in the data buffer, callback, if not null, runs on the GL thread
+     * after that. The callback runs whatever the job throws, with null pixels on errors.
+     */
+    static Future<ByteBuffer> submit(final CanvasRenderingContext2DImpl context, final ByteBuffer commands, final Callback callback) {
+        return getExecutor().submit(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() {
+                ByteBuffer pixels = null;
+                int width = 0;
+                int height = 0;
+                try {
+                    pixels = context.rasterize(commands);
+                    if (null != pixels) {
+                        width = context.getWidth();
+                        height = context.getHeight();
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "rasterize:" + e.toString());
+                } finally {
+                    // Also after an Error, which then fails the future, the callback releases the context
+                    if (null != callback) {
+                        final ByteBuffer result = pixels;
+                        final int resultWidth = width;
+                        final int resultHeight = height;
+                        Cocos2dxHelper.runOnGLThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onRasterized(result, resultWidth, resultHeight);
+                            }
+                        });
+                    }
+                }
+                return pixels;
+            }
+        });
+    }
+
+    static native void nativeOnRasterized(int requestId, ByteBuffer pixels, int width, int height);
+}
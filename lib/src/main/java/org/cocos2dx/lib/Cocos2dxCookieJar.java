@@ -0,0 +1,440 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.CookieHandler;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persistent cookie store for HttpURLConnection.
+ *
+ * Once installed as the default CookieHandler, the platform stores Set-Cookie responses here
+ * and attaches matching cookies to outgoing requests. Cookies are indexed by domain, so a lookup
+ * only visits the host and its parent domains. A cookie set without a Domain attribute is
+ * host-only (RFC 6265 5.3) and only sent to the host that set it. Persistent cookies are
+ * appended to a journal as they change; the journal is loaded and compacted on first use.
+ *
+ * Install it only if native code doesn't send its own Cookie header, otherwise cookies are
+ * attached twice.
+ */
+public class Cocos2dxCookieJar implements CookieStore {
+    private static final String TAG = "Cocos2dxCookieJar";
+    private static final String JOURNAL_NAME = "cocos2dx-cookies";
+    private static final char ADD = '+';
+    private static final char ADD_HOST_ONLY = '=';
+    private static final char REMOVE = '-';
+
+    // Names of the cookies without a Domain attribute in the response being stored, see Manager
+    private static final ThreadLocal<Set<String>> sHostOnlyNames = new ThreadLocal<>();
+
+    private static Cocos2dxCookieJar sInstance = null;
+
+    private static class Entry {
+        final HttpCookie cookie;
+        final long expiresAt;
+        final boolean hostOnly;
+
+        Entry(HttpCookie cookie, long expiresAt, boolean hostOnly) {
+            this.cookie = cookie;
+            this.expiresAt = expiresAt;
+            this.hostOnly = hostOnly;
+        }
+
+        boolean isPersistent() {
+            return expiresAt > 0;
+        }
+
+        boolean hasExpired(long now) {
+            return expiresAt > 0 && now >= expiresAt;
+        }
+    }
+
+    // cookie domain without leading dot -> cookies of that domain
+    private final HashMap<String, List<Entry>> mIndex = new HashMap<>();
+    private final File mJournal;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    private boolean mLoaded = false;
+
+    /**
+     * The CookieManager fills in the request host as the domain of cookies without a Domain
+     * attribute, so it can't tell them from cookies for the whole domain. This one notes their
+     * names before the cookies are stored.
+     */
+    private static class Manager extends CookieManager {
+        Manager(CookieStore store) {
+            super(store, CookiePolicy.ACCEPT_ORIGINAL_SERVER);
+        }
+
+        @Override
+        public void put(URI uri, Map<String, List<String>> responseHeaders) throws IOException {
+            Set<String> hostOnlyNames = new HashSet<>();
+            for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+                String key = header.getKey();
+                if (null == key || !(key.equalsIgnoreCase("Set-Cookie") || key.equalsIgnoreCase("Set-Cookie2"))) {
+                    continue;
+                }
+                for (String value : header.getValue()) {
+                    try {
+                        for (HttpCookie cookie : HttpCookie.parse(value)) {
+                            if (null == cookie.getDomain()) {
+                                hostOnlyNames.add(cookie.getName());
+                            }
+                        }
+                    } catch (IllegalArgumentException ignored) {
+                        // CookieManager skips it as well
+                    }
+                }
+            }
+
+            sHostOnlyNames.set(hostOnlyNames);
+            try {
+                super.put(uri, responseHeaders);
+            } finally {
+                sHostOnlyNames.remove();
+            }
+        }
+    }
+
+    public static synchronized void install(Context context) {
+        if (null == sInstance) {
+            sInstance = new Cocos2dxCookieJar(new File(context.getFilesDir(), JOURNAL_NAME));
+        }
+        CookieHandler.setDefault(new Manager(sInstance));
+    }
+
+    public static synchronized void uninstall() {
+        if (CookieHandler.getDefault() instanceof CookieManager
+                && ((CookieManager) CookieHandler.getDefault()).getCookieStore() == sInstance) {
+            CookieHandler.setDefault(null);
+        }
+    }
+
+    // The journal is read by the first thread that uses cookies, not by install on the main thread
+    private Cocos2dxCookieJar(File journal) {
+        mJournal = journal;
+    }
+
+    @Override
+    public synchronized void add(URI uri, HttpCookie cookie) {
+        ensureLoaded();
+        String domain = getDomain(uri, cookie);
+        if (null == domain) {
+            return;
+        }
+        Set<String> hostOnlyNames = sHostOnlyNames.get();
+        boolean hostOnly = null == cookie.getDomain()
+                || (null != hostOnlyNames && hostOnlyNames.contains(cookie.getName()));
+
+        long now = System.currentTimeMillis();
+        long expiresAt = cookie.getMaxAge() < 0 ? 0 : now + cookie.getMaxAge() * 1000;
+        List<Entry> entries = mIndex.get(domain);
+        if (null == entries) {
+            entries = new ArrayList<>(4);
+            mIndex.put(domain, entries);
+        }
+
+        boolean wasPersistent = removeEntry(entries, cookie);
+        if (0 == cookie.getMaxAge()) {
+            // max-age=0 deletes the cookie
+            if (wasPersistent) {
+                append(REMOVE, domain, cookie, 0);
+            }
+            return;
+        }
+
+        Entry entry = new Entry(cookie, expiresAt, hostOnly);
+        entries.add(entry);
+        if (entry.isPersistent()) {
+            append(hostOnly ? ADD_HOST_ONLY : ADD, domain, cookie, expiresAt);
+        } else if (wasPersistent) {
+            append(REMOVE, domain, cookie, 0);
+        }
+    }
+
+    @Override
+    public synchronized List<HttpCookie> get(URI uri) {
+        ensureLoaded();
+        List<HttpCookie> result = new ArrayList<>();
+        String host = uri.getHost();
+        if (null == host) {
+            return result;
+        }
+
+        long now = System.currentTimeMillis();
+        String domain = host.toLowerCase(Locale.US);
+        boolean exactHost = true;
+        while (true) {
+            List<Entry> entries = mIndex.get(domain);
+            if (null != entries) {
+                collect(entries, domain, now, exactHost, result);
+            }
+            exactHost = false;
+            int dot = domain.indexOf('.');
+            if (-1 == dot) {
+                break;
+            }
+            domain = domain.substring(dot + 1);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized List<HttpCookie> getCookies() {
+        ensureLoaded();
+        List<HttpCookie> result = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, List<Entry>> entries : mIndex.entrySet()) {
+            collect(entries.getValue(), entries.getKey(), now, true, result);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized List<URI> getURIs() {
+        ensureLoaded();
+        List<URI> result = new ArrayList<>(mIndex.size());
+        for (String domain : mIndex.keySet()) {
+            try {
+                result.add(new URI("http", domain, "/", null));
+            } catch (Exception e) {
+                Log.e(TAG, "getURIs:" + e.toString());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized boolean remove(URI uri, HttpCookie cookie) {
+        ensureLoaded();
+        String domain = getDomain(uri, cookie);
+        List<Entry> entries = (null == domain) ? null : mIndex.get(domain);
+        if (null == entries) {
+            return false;
+        }
+        int size = entries.size();
+        if (removeEntry(entries, cookie)) {
+            append(REMOVE, domain, cookie, 0);
+        }
+        return entries.size() != size;
+    }
+
+    @Override
+    public synchronized boolean removeAll() {
+        ensureLoaded();
+        boolean changed = !mIndex.isEmpty();
+        mIndex.clear();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                mJournal.delete();
+            }
+        });
+        return changed;
+    }
+
+    private static String getDomain(URI uri, HttpCookie cookie) {
+        String domain = cookie.getDomain();
+        if (null == domain && null != uri) {
+            domain = uri.getHost();
+        }
+        if (null == domain) {
+            return null;
+        }
+        domain = domain.toLowerCase(Locale.US);
+        return domain.startsWith(".") ? domain.substring(1) : domain;
+    }
+
+    // Adds the live cookies of one domain and drops the expired ones. Host-only cookies are only
+    // added if the domain is the request host itself.
+    private void collect(List<Entry> entries, String domain, long now, boolean exactHost, List<HttpCookie> result) {
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.hasExpired(now)) {
+                iterator.remove();
+                append(REMOVE, domain, entry.cookie, 0);
+            } else if (exactHost || !entry.hostOnly) {
+                result.add(entry.cookie);
+            }
+        }
+    }
+
+    // Returns whether a persistent cookie was replaced
+    private static boolean removeEntry(List<Entry> entries, HttpCookie cookie) {
+        for (int i = 0; i < entries.size(); ++i) {
+            Entry entry = entries.get(i);
+            if (entry.cookie.equals(cookie)) {
+                entries.remove(i);
+                return entry.isPersistent();
+            }
+        }
+        return false;
+    }
+
+    // Journal line: op (+ cookie, = host-only cookie, - removal), cookie domain, name, path, expiresAt,
+    // secure, httpOnly, value separated by tabs
+    private void append(char op, String domain, HttpCookie cookie, long expiresAt) {
+        final String line = toLine(op, domain, cookie, expiresAt);
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                Writer writer = null;
+                try {
+                    writer = new FileWriter(mJournal, true);
+                    writer.write(line);
+                } catch (IOException e) {
+                    Log.e(TAG, "append:" + e.toString());
+                } finally {
+                    if (null != writer) {
+                        try {
+                            writer.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private static String toLine(char op, String domain, HttpCookie cookie, long expiresAt) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(op).append('\t')
+                .append(null == cookie.getDomain() ? domain : cookie.getDomain()).append('\t')
+                .append(cookie.getName()).append('\t')
+                .append(null == cookie.getPath() ? "" : cookie.getPath()).append('\t')
+                .append(expiresAt).append('\t')
+                .append(cookie.getSecure() ? '1' : '0').append('\t')
+                .append(cookie.isHttpOnly() ? '1' : '0').append('\t')
+                .append(null == cookie.getValue() ? "" : cookie.getValue()).append('\n');
+        return sb.toString();
+    }
+
+    private void ensureLoaded() {
+        if (!mLoaded) {
+            mLoaded = true;
+            load();
+        }
+    }
+
+    // Replays the journal, then rewrites it with only the live persistent cookies
+    private void load() {
+        if (!mJournal.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(mJournal));
+            String line;
+            while (null != (line = reader.readLine())) {
+                String[] fields = line.split("\t", 8);
+                if (fields.length != 8) {
+                    continue;
+                }
+                HttpCookie cookie = new HttpCookie(fields[2], fields[7]);
+                cookie.setDomain(fields[1]);
+                cookie.setPath(fields[3].length() > 0 ? fields[3] : null);
+                cookie.setSecure("1".equals(fields[5]));
+                cookie.setHttpOnly("1".equals(fields[6]));
+                String domain = getDomain(null, cookie);
+                List<Entry> entries = mIndex.get(domain);
+                if (null == entries) {
+                    entries = new ArrayList<>(4);
+                    mIndex.put(domain, entries);
+                }
+                removeEntry(entries, cookie);
+                char op = fields[0].charAt(0);
+                if (ADD == op || ADD_HOST_ONLY == op) {
+                    entries.add(new Entry(cookie, Long.parseLong(fields[4]), ADD_HOST_ONLY == op));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "load:" + e.toString());
+        } finally {
+            if (null != reader) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        final StringBuilder compacted = new StringBuilder();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, List<Entry>> entries : mIndex.entrySet()) {
+            Iterator<Entry> iterator = entries.getValue().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.hasExpired(now)) {
+                    iterator.remove();
+                } else {
+                    entry.cookie.setMaxAge((entry.expiresAt - now) / 1000);
+                    compacted.append(toLine(entry.hostOnly ? ADD_HOST_ONLY : ADD, entries.getKey(), entry.cookie, entry.expiresAt));
+                }
+            }
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                Writer writer = null;
+                try {
+                    writer = new FileWriter(mJournal, false);
+                    writer.write(compacted.toString());
+                } catch (IOException e) {
+                    Log.e(TAG, "compact:" + e.toString());
+                } finally {
+                    if (null != writer) {
+                        try {
+                            writer.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,86 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cocos2dx.okhttp3.Dns;
+
+/**
+ * DNS cache with a fixed TTL, used by Cocos2dxHttpClient. Java doesn't expose record TTLs, so
+ * successful lookups are kept for sTtlMiliseconds; failed lookups are not cached.
+ */
+public class Cocos2dxDns implements Dns {
+    private static final long DEFAULT_TTL_MILISECONDS = 5 * 60 * 1000;
+
+    static final Cocos2dxDns INSTANCE = new Cocos2dxDns();
+
+    private static class Entry {
+        final List<InetAddress> addresses;
+        final long expiresAt;
+
+        Entry(List<InetAddress> addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static long sTtlMiliseconds = DEFAULT_TTL_MILISECONDS;
+    private final ConcurrentHashMap<String, Entry> mCache = new ConcurrentHashMap<>();
+
+    static void setTtl(long ttlMiliseconds) {
+        sTtlMiliseconds = ttlMiliseconds;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        if (null == hostname) {
+            throw new UnknownHostException("hostname == null");
+        }
+
+        Entry entry = mCache.get(hostname);
+        if (null != entry && System.currentTimeMillis() < entry.expiresAt) {
+            return entry.addresses;
+        }
+        return resolve(hostname);
+    }
+
+    // Resolves hostname now and caches the result, used to pre-resolve hosts in the background.
+    List<InetAddress> resolve(String hostname) throws UnknownHostException {
+        List<InetAddress> addresses = Collections.unmodifiableList(Arrays.asList(InetAddress.getAllByName(hostname)));
+        if (sTtlMiliseconds > 0) {
+            mCache.put(hostname, new Entry(addresses, System.currentTimeMillis() + sTtlMiliseconds));
+        }
+        return addresses;
+    }
+
+    void clear() {
+        mCache.clear();
+    }
+}
@@ -0,0 +1,480 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.cocos2dx.okhttp3.Call;
+import org.cocos2dx.okhttp3.Callback;
+import org.cocos2dx.okhttp3.MediaType;
+import org.cocos2dx.okhttp3.Request;
+import org.cocos2dx.okhttp3.RequestBody;
+import org.cocos2dx.okhttp3.Response;
+
+/**
+ * Persistent queue of analytics events, uploaded in batches.
+ *
+ * Native code and scripts append events, JSON texts, with addEvent. They are written to an
+ * append-only log of length-prefixed records, so they survive the process being killed. A
+ * background uploader POSTs them as a gzipped JSON array once BATCH_TRIGGER_EVENTS events are
+ * pending or FLUSH_DELAY_MS after the first one, and backs off exponentially while the server
+ * can't be reached. The offset of the first unacknowledged event is kept next to the log and
+ * advanced when the server answers 2xx, so a batch is sent at least once. Acknowledged events
+ * are dropped from the log by compacting it.
+ */
+public class Cocos2dxEventQueue {
+    private static final String TAG = "Cocos2dxEventQueue";
+    private static final String DIR_NAME = "cocos2dx-events";
+    private static final String LOG_NAME = "events.log";
+    private static final String ACK_NAME = "events.ack";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private static final int BATCH_TRIGGER_EVENTS = 100;
+    private static final int MAX_BATCH_EVENTS = 500;
+    private static final int MAX_BATCH_BYTES = 256 * 1024;
+    private static final long FLUSH_DELAY_MS = 30 * 1000;
+    private static final long MIN_RETRY_DELAY_MS = 5 * 1000;
+    private static final long MAX_RETRY_DELAY_MS = 10 * 60 * 1000;
+    // Oldest events are dropped beyond this, so a device that stays offline doesn't fill its storage
+    private static final long MAX_LOG_BYTES = 4 * 1024 * 1024;
+    private static final long COMPACT_BYTES = 256 * 1024;
+
+    private static final ScheduledExecutorService sExecutor = Executors.newSingleThreadScheduledExecutor();
+    private static final Random sRandom = new Random();
+
+    // Only used on sExecutor
+    private static File sLogFile = null;
+    private static File sAckFile = null;
+    private static FileOutputStream sLog = null;
+    private static long sLogLength = 0;
+    // Offset of the first event not acknowledged by the server
+    private static long sAcked = 0;
+    // Number of events after sAcked
+    private static int sPendingEvents = 0;
+    private static boolean sUploading = false;
+    private static int sFailures = 0;
+    private static long sRetryAt = 0;
+    private static ScheduledFuture<?> sScheduledUpload = null;
+    private static String sUrl = null;
+    private static String[] sHeader = null;
+
+    private static final Runnable UPLOAD = new Runnable() {
+        @Override
+        public void run() {
+            sScheduledUpload = null;
+            upload();
+        }
+    };
+
+    /**
+     * Events are kept until an upload URL is set.
+     * @param header alternating keys and values, sent with every batch
+     */
+    public static void setUploadUrl(final String url, final String[] header) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sUrl = url;
+                sHeader = header;
+                if (open() && sPendingEvents > 0) {
+                    scheduleUpload(0);
+                }
+            }
+        });
+    }
+
+    // event is a JSON text, batches are sent as a JSON array of events
+    public static void addEvent(String event) {
+        final byte[] data = event.getBytes(UTF_8);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(data);
+            }
+        });
+    }
+
+    // Uploads pending events now, e.g. when the application goes to the background
+    public static void flush() {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                upload();
+            }
+        });
+    }
+
+    private static boolean open() {
+        if (null != sLogFile) {
+            return true;
+        }
+        Context context = Cocos2dxHelper.getActivity();
+        if (null == context) {
+            return false;
+        }
+        File dir = new File(context.getFilesDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "can't create " + dir);
+            return false;
+        }
+        sLogFile = new File(dir, LOG_NAME);
+        sAckFile = new File(dir, ACK_NAME);
+        load();
+        return true;
+    }
+
+    // Reads the acknowledged offset and counts the pending events, a torn last record is dropped
+    private static void load() {
+        sAcked = 0;
+        if (sAckFile.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new FileInputStream(sAckFile));
+                sAcked = in.readLong();
+            } catch (IOException e) {
+                Log.e(TAG, "load:" + e.toString());
+            } finally {
+                close(in);
+            }
+        }
+
+        sLogLength = sLogFile.length();
+        if (sAcked < 0 || sAcked > sLogLength) {
+            sAcked = 0;
+        }
+        sPendingEvents = 0;
+        RandomAccessFile log = null;
+        try {
+            log = new RandomAccessFile(sLogFile, "rw");
+            long offset = sAcked;
+            log.seek(offset);
+            while (offset + 4 <= sLogLength) {
+                int length = log.readInt();
+                if (length < 0 || offset + 4 + length > sLogLength) {
+                    break;
+                }
+                log.seek(offset + 4 + length);
+                offset += 4 + length;
+                sPendingEvents++;
+            }
+            if (offset != sLogLength) {
+                Log.e(TAG, "dropping " + (sLogLength - offset) + " bytes of a torn event");
+                log.setLength(offset);
+                sLogLength = offset;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "load:" + e.toString());
+        } finally {
+            close(log);
+        }
+    }
+
+    private static void append(byte[] data) {
+        if (!open()) {
+            Log.e(TAG, "no files directory yet, dropping an event");
+            return;
+        }
+        try {
+            if (null == sLog) {
+                sLog = new FileOutputStream(sLogFile, true);
+            }
+            ByteArrayOutputStream record = new ByteArrayOutputStream(4 + data.length);
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeInt(data.length);
+            out.write(data);
+            // One write per record, a crash can only tear the last one
+            sLog.write(record.toByteArray());
+            sLogLength += record.size();
+            sPendingEvents++;
+        } catch (IOException e) {
+            Log.e(TAG, "append:" + e.toString());
+            return;
+        }
+
+        trim();
+        if (sPendingEvents >= BATCH_TRIGGER_EVENTS) {
+            upload();
+        } else {
+            scheduleUpload(FLUSH_DELAY_MS);
+        }
+    }
+
+    // Drops the oldest events while the log is over MAX_LOG_BYTES
+    private static void trim() {
+        if (sUploading || sLogLength - sAcked <= MAX_LOG_BYTES) {
+            return;
+        }
+        RandomAccessFile log = null;
+        int dropped = 0;
+        try {
+            log = new RandomAccessFile(sLogFile, "r");
+            long offset = sAcked;
+            while (sLogLength - offset > MAX_LOG_BYTES) {
+                log.seek(offset);
+                offset += 4 + log.readInt();
+                dropped++;
+            }
+            Log.e(TAG, "log full, dropping " + dropped + " events");
+            acknowledge(offset, dropped);
+        } catch (IOException e) {
+            Log.e(TAG, "trim:" + e.toString());
+        } finally {
+            close(log);
+        }
+    }
+
+    private static void scheduleUpload(long delayMs) {
+        if (null == sUrl || sUploading || null != sScheduledUpload) {
+            return;
+        }
+        delayMs = Math.max(delayMs, sRetryAt - System.currentTimeMillis());
+        sScheduledUpload = sExecutor.schedule(UPLOAD, Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+    }
+
+    private static void upload() {
+        if (sUploading || null == sUrl || !open() || 0 == sPendingEvents) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < sRetryAt) {
+            scheduleUpload(sRetryAt - now);
+            return;
+        }
+        if (null != sScheduledUpload) {
+            sScheduledUpload.cancel(false);
+            sScheduledUpload = null;
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        long end = sAcked;
+        int count = 0;
+        RandomAccessFile log = null;
+        try {
+            log = new RandomAccessFile(sLogFile, "r");
+            log.seek(end);
+            GZIPOutputStream out = new GZIPOutputStream(body);
+            out.write('[');
+            int size = 0;
+            byte[] buffer = new byte[1024];
+            while (count < MAX_BATCH_EVENTS && end < sLogLength) {
+                int length = log.readInt();
+                // An event larger than MAX_BATCH_BYTES is sent alone
+                if (count > 0 && size + length > MAX_BATCH_BYTES) {
+                    break;
+                }
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                log.readFully(buffer, 0, length);
+                if (count > 0) {
+                    out.write(',');
+                }
+                out.write(buffer, 0, length);
+                size += length;
+                end += 4 + length;
+                count++;
+            }
+            out.write(']');
+            out.close();
+        } catch (EOFException e) {
+            Log.e(TAG, "upload: log ends before " + sLogLength);
+            return;
+        } catch (IOException e) {
+            Log.e(TAG, "upload:" + e.toString());
+            return;
+        } finally {
+            close(log);
+        }
+
+        Request request;
+        try {
+            request = Cocos2dxHttpClient.buildRequest("POST", sUrl, sHeader, RequestBody.create(JSON, body.toByteArray()))
+                    .newBuilder()
+                    .header("Content-Encoding", "gzip")
+                    .build();
+        } catch (Exception e) {
+            Log.e(TAG, "upload:" + e.toString());
+            return;
+        }
+        sUploading = true;
+        send(request, end, count);
+    }
+
+    private static void send(Request request, final long end, final int count) {
+        final Call call = Cocos2dxHttpClient.getHttpClient().newCall(request);
+        final Callback callback = new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Cocos2dxHttpPriority.release(Cocos2dxHttpPriority.BACKGROUND);
+                Cocos2dxHttpTiming.finish(call);
+                onUploaded(end, count, 0, e.toString());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                int code = response.code();
+                response.close();
+                Cocos2dxHttpPriority.release(Cocos2dxHttpPriority.BACKGROUND);
+                Cocos2dxHttpTiming.finish(call);
+                onUploaded(end, count, code, null);
+            }
+        };
+        Cocos2dxHttpPriority.enqueue(Cocos2dxHttpPriority.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                call.enqueue(callback);
+            }
+        });
+    }
+
+    private static void onUploaded(final long end, final int count, final int code, final String errStr) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sUploading = false;
+                boolean accepted = code >= 200 && code < 300;
+                // Other client errors won't succeed on retry, the batch is dropped so it can't block the queue
+                boolean rejected = code >= 400 && code < 500 && 408 != code && 429 != code;
+                if (accepted || rejected) {
+                    if (rejected) {
+                        Log.e(TAG, "batch of " + count + " events rejected: " + code);
+                    }
+                    sFailures = 0;
+                    sRetryAt = 0;
+                    acknowledge(end, count);
+                    if (sPendingEvents >= BATCH_TRIGGER_EVENTS) {
+                        upload();
+                    } else if (sPendingEvents > 0) {
+                        scheduleUpload(FLUSH_DELAY_MS);
+                    }
+                    return;
+                }
+
+                sFailures++;
+                long delay = Math.min(MIN_RETRY_DELAY_MS << Math.min(sFailures - 1, 16), MAX_RETRY_DELAY_MS);
+                // Jitter spreads the retries of many clients after an outage
+                delay = delay / 2 + (long) (sRandom.nextDouble() * (delay / 2));
+                sRetryAt = System.currentTimeMillis() + delay;
+                Log.e(TAG, "upload failed (" + (null == errStr ? code : errStr) + "), retry in " + delay + "ms");
+                scheduleUpload(delay);
+            }
+        });
+    }
+
+    // Marks the events before end as delivered and compacts the log
+    private static void acknowledge(long end, int count) {
+        sAcked = end;
+        sPendingEvents -= count;
+        try {
+            if (sAcked == sLogLength) {
+                close(sLog);
+                sLog = null;
+                if (sLogFile.exists() && !sLogFile.delete()) {
+                    throw new IOException("can't delete " + sLogFile);
+                }
+                sLogLength = 0;
+                sAcked = 0;
+            } else if (sAcked >= COMPACT_BYTES) {
+                compact();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "acknowledge:" + e.toString());
+        }
+        saveAck(sAcked);
+    }
+
+    // Moves the pending events to a new log, a crash in between sends some events twice
+    private static void compact() throws IOException {
+        File tmp = new File(sLogFile.getPath() + ".tmp");
+        RandomAccessFile in = new RandomAccessFile(sLogFile, "r");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            in.seek(sAcked);
+            byte[] buffer = new byte[8192];
+            int size;
+            while ((size = in.read(buffer)) != -1) {
+                out.write(buffer, 0, size);
+            }
+        } finally {
+            close(in);
+            close(out);
+        }
+        saveAck(0);
+        close(sLog);
+        sLog = null;
+        if (!tmp.renameTo(sLogFile)) {
+            throw new IOException("can't replace " + sLogFile);
+        }
+        sLogLength -= sAcked;
+        sAcked = 0;
+    }
+
+    private static void saveAck(long offset) {
+        File tmp = new File(sAckFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tmp));
+            out.writeLong(offset);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(sAckFile)) {
+                throw new IOException("can't replace " + sAckFile);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "saveAck:" + e.toString());
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (null != closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close:" + e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.content.Context;
+import android.net.http.HttpResponseCache;
+import android.util.Log;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP cache for Cocos2dxHttpURLConnection.
+ *
+ * Storage, Cache-Control/Expires freshness and ETag/Last-Modified revalidation are done by the
+ * platform HttpResponseCache, a size-bounded disk cache used by every HttpURLConnection. On top
+ * of it an in-memory index remembers stale-while-revalidate windows: a GET whose cached response
+ * is stale but inside its window is answered from the cache right away and revalidated in the
+ * background. Requests opt out with Cocos2dxHttpURLConnection.setUseCaches.
+ *
+ * HttpResponseCache is process wide, installing it turns on disk caching for every
+ * HttpURLConnection of the app, not only the engine's. So it is only installed if the activity
+ * asks for it, see Cocos2dxActivity.getHttpCacheSize, and install and flush touch the disk on a
+ * background thread.
+ */
+public class Cocos2dxHttpCache {
+    private static final String TAG = "Cocos2dxHttpCache";
+    private static final String CACHE_DIR = "cocos2dx-http";
+    private static final int MAX_INDEX_ENTRIES = 256;
+
+    private static class Freshness {
+        long staleAt;
+        long revalidateUntil;
+    }
+
+    // url -> freshness of the cached response, least recently used first
+    private static final LinkedHashMap<String, Freshness> sIndex = new LinkedHashMap<String, Freshness>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Freshness> eldest) {
+            return size() > MAX_INDEX_ENTRIES;
+        }
+    };
+    private static final Set<String> sRevalidating = new HashSet<>();
+    private static ExecutorService sRevalidateExecutor = null;
+    // Runs install and flush in order, off the main thread
+    private static ExecutorService sDiskExecutor = null;
+
+    // Does nothing if maxSize is 0 or less
+    static void install(Context context, final long maxSize) {
+        if (maxSize <= 0) {
+            return;
+        }
+        final File directory = new File(context.getCacheDir(), CACHE_DIR);
+        getDiskExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (null != HttpResponseCache.getInstalled()) {
+                    return;
+                }
+                try {
+                    HttpResponseCache.install(directory, maxSize);
+                } catch (Exception e) {
+                    Log.e(TAG, "install:" + e.toString());
+                }
+            }
+        });
+    }
+
+    static void flush() {
+        getDiskExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                HttpResponseCache cache = HttpResponseCache.getInstalled();
+                if (null != cache) {
+                    cache.flush();
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getDiskExecutor() {
+        if (null == sDiskExecutor) {
+            sDiskExecutor = Executors.newSingleThreadExecutor();
+        }
+        return sDiskExecutor;
+    }
+
+    static void clear() {
+        synchronized (sIndex) {
+            sIndex.clear();
+        }
+        HttpResponseCache cache = HttpResponseCache.getInstalled();
+        if (null != cache) {
+            try {
+                cache.delete();
+            } catch (Exception e) {
+                Log.e(TAG, "clear:" + e.toString());
+            }
+        }
+    }
+
+    // Called before connecting. Lets a stale GET inside its stale-while-revalidate window be
+    // served from the cache and schedules the revalidation.
+    static void prepareRequest(HttpURLConnection http) {
+        if (!isCacheable(http) || null != http.getRequestProperty("Cache-Control")) {
+            return;
+        }
+
+        String url = http.getURL().toString();
+        long now = System.currentTimeMillis();
+        synchronized (sIndex) {
+            Freshness entry = sIndex.get(url);
+            if (null == entry || now <= entry.staleAt || now > entry.revalidateUntil) {
+                return;
+            }
+            http.setRequestProperty("Cache-Control", "max-stale=" + ((entry.revalidateUntil - now) / 1000 + 1));
+        }
+        revalidate(url, http.getRequestProperties());
+    }
+
+    // Called once the response headers arrived, records the freshness of cacheable responses.
+    static void onResponse(HttpURLConnection http) {
+        if (!isCacheable(http)) {
+            return;
+        }
+
+        String url = http.getURL().toString();
+        String cacheControl = http.getHeaderField("Cache-Control");
+        long maxAge = getDirectiveSeconds(cacheControl, "max-age");
+        long staleWhileRevalidate = getDirectiveSeconds(cacheControl, "stale-while-revalidate");
+        if (staleWhileRevalidate <= 0 || (null != cacheControl && cacheControl.toLowerCase(Locale.US).contains("no-store"))) {
+            synchronized (sIndex) {
+                sIndex.remove(url);
+            }
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long date = http.getDate();
+        if (date <= 0 || date > now) {
+            date = now;
+        }
+        long staleAt;
+        if (maxAge >= 0) {
+            staleAt = date + maxAge * 1000;
+        } else if (http.getExpiration() > 0) {
+            staleAt = http.getExpiration();
+        } else {
+            staleAt = date;
+        }
+
+        Freshness entry = new Freshness();
+        entry.staleAt = staleAt;
+        entry.revalidateUntil = staleAt + staleWhileRevalidate * 1000;
+        synchronized (sIndex) {
+            sIndex.put(url, entry);
+        }
+    }
+
+    private static boolean isCacheable(HttpURLConnection http) {
+        return http.getUseCaches()
+                && "GET".equalsIgnoreCase(http.getRequestMethod())
+                && null != HttpResponseCache.getInstalled();
+    }
+
+    // Returns the value of a "name=seconds" directive, or -1 if it is absent.
+    static long getDirectiveSeconds(String cacheControl, String name) {
+        if (null == cacheControl) {
+            return -1;
+        }
+        int start = 0;
+        int length = cacheControl.length();
+        while (start < length) {
+            int end = cacheControl.indexOf(',', start);
+            if (-1 == end) {
+                end = length;
+            }
+            int eq = cacheControl.indexOf('=', start);
+            if (-1 != eq && eq < end
+                    && cacheControl.substring(start, eq).trim().equalsIgnoreCase(name)) {
+                String value = cacheControl.substring(eq + 1, end).trim();
+                if (value.length() > 1 && value.charAt(0) == '"') {
+                    value = value.substring(1, value.length() - 1);
+                }
+                try {
+                    return Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+            start = end + 1;
+        }
+        return -1;
+    }
+
+    private static void revalidate(final String url, final Map<String, List<String>> requestHeaders) {
+        synchronized (sRevalidating) {
+            if (!sRevalidating.add(url)) {
+                return;
+            }
+            if (null == sRevalidateExecutor) {
+                sRevalidateExecutor = Executors.newSingleThreadExecutor();
+            }
+        }
+
+        sRevalidateExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                HttpURLConnection http = null;
+                try {
+                    http = (HttpURLConnection) new URL(url).openConnection();
+                    for (Map.Entry<String, List<String>> header : requestHeaders.entrySet()) {
+                        if (null == header.getKey() || "Cache-Control".equalsIgnoreCase(header.getKey())) {
+                            continue;
+                        }
+                        http.setRequestProperty(header.getKey(), Cocos2dxHttpURLConnection.listToString(header.getValue(), ","));
+                    }
+                    // no-cache makes the cache send a conditional request and store the result
+                    http.setRequestProperty("Cache-Control", "no-cache");
+                    http.getResponseCode();
+                    onResponse(http);
+                    InputStream in = http.getInputStream();
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) != -1) {
+                        // the response is written to the cache while it is read
+                    }
+                    in.close();
+                } catch (Exception e) {
+                    Log.e(TAG, "revalidate:" + e.toString());
+                } finally {
+                    if (null != http) {
+                        http.disconnect();
+                    }
+                    synchronized (sRevalidating) {
+                        sRevalidating.remove(url);
+                    }
+                }
+            }
+        });
+    }
+}
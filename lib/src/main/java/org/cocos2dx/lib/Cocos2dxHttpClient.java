@@ -0,0 +1,387 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.CookieHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.cocos2dx.okhttp3.Call;
+import org.cocos2dx.okhttp3.Callback;
+import org.cocos2dx.okhttp3.ConnectionPool;
+import org.cocos2dx.okhttp3.Cookie;
+import org.cocos2dx.okhttp3.CookieJar;
+import org.cocos2dx.okhttp3.Dispatcher;
+import org.cocos2dx.okhttp3.HttpUrl;
+import org.cocos2dx.okhttp3.MediaType;
+import org.cocos2dx.okhttp3.OkHttpClient;
+import org.cocos2dx.okhttp3.Request;
+import org.cocos2dx.okhttp3.RequestBody;
+import org.cocos2dx.okhttp3.Response;
+import org.cocos2dx.okhttp3.ResponseBody;
+
+/**
+ * Asynchronous HTTP requests.
+ *
+ * Unlike the blocking Cocos2dxHttpURLConnection calls, sendRequest takes a full request
+ * description and returns immediately. All requests share one OkHttpClient, so its dispatcher
+ * and connection pool bound the work instead of native threads. The response status, headers
+ * and body are delivered on the GL thread, or for Java callers on a given executor.
+ */
+public class Cocos2dxHttpClient {
+    private static final String TAG = "Cocos2dxHttpClient";
+    private static final int MAX_REQUESTS = 64;
+    private static final int MAX_REQUESTS_PER_HOST = 8;
+    private static final int MAX_IDLE_CONNECTIONS = 16;
+    private static final int KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_PENDING_TIMINGS = 128;
+    private static final long PROGRESS_INTERVAL = 64 * 1024;
+
+    public interface Listener {
+        /**
+         * @param code    HTTP status, or 0 if no response was received
+         * @param headers response headers, null if no response was received
+         * @param errStr  null on success
+         */
+        void onFinish(int id, int code, Cocos2dxHttpResponseHeaders headers, byte[] body, String errStr);
+    }
+
+    private static OkHttpClient sHttpClient = null;
+    private static ConcurrentHashMap<Integer, Call> sTaskMap = new ConcurrentHashMap<>();
+    // Priorities set by setPriority for requests not sent yet
+    private static ConcurrentHashMap<Integer, Integer> sPriorities = new ConcurrentHashMap<>();
+    // Timings of finished requests not read yet, oldest dropped first
+    private static final LinkedHashMap<Integer, Cocos2dxHttpTiming> sTimings = new LinkedHashMap<Integer, Cocos2dxHttpTiming>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Cocos2dxHttpTiming> eldest) {
+            return size() > MAX_PENDING_TIMINGS;
+        }
+    };
+
+    private static final Executor GL_THREAD_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            Cocos2dxHelper.runOnGLThread(command);
+        }
+    };
+
+    private static final Listener NATIVE_LISTENER = new Listener() {
+        @Override
+        public void onFinish(int id, int code, Cocos2dxHttpResponseHeaders headers, byte[] body, String errStr) {
+            nativeOnFinish(id, code, null == headers ? null : headers.pack(), body, errStr);
+        }
+    };
+
+    // Lets the async requests share cookies with HttpURLConnection when a CookieHandler is installed
+    private static final CookieJar COOKIE_HANDLER_JAR = new CookieJar() {
+        @Override
+        public void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
+            CookieHandler cookieHandler = CookieHandler.getDefault();
+            if (null == cookieHandler) {
+                return;
+            }
+            List<String> setCookies = new ArrayList<>(cookies.size());
+            for (Cookie cookie : cookies) {
+                setCookies.add(cookie.toString());
+            }
+            try {
+                cookieHandler.put(url.uri(), Collections.singletonMap("Set-Cookie", setCookies));
+            } catch (IOException e) {
+                Log.e(TAG, "saveFromResponse:" + e.toString());
+            }
+        }
+
+        @Override
+        public List<Cookie> loadForRequest(HttpUrl url) {
+            CookieHandler cookieHandler = CookieHandler.getDefault();
+            if (null == cookieHandler) {
+                return Collections.emptyList();
+            }
+            List<Cookie> cookies = new ArrayList<>();
+            try {
+                Map<String, List<String>> headers = cookieHandler.get(url.uri(), Collections.<String, List<String>>emptyMap());
+                for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                    if (!"Cookie".equalsIgnoreCase(entry.getKey())) {
+                        continue;
+                    }
+                    for (String header : entry.getValue()) {
+                        parseCookieHeader(url, header, cookies);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "loadForRequest:" + e.toString());
+            }
+            return cookies;
+        }
+    };
+
+    static synchronized OkHttpClient getHttpClient() {
+        if (null == sHttpClient) {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(MAX_REQUESTS);
+            dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+            sHttpClient = new OkHttpClient().newBuilder()
+                    .dispatcher(dispatcher)
+                    .cookieJar(COOKIE_HANDLER_JAR)
+                    .dns(Cocos2dxDns.INSTANCE)
+                    .eventListenerFactory(Cocos2dxHttpTiming.EVENT_LISTENER_FACTORY)
+                    .addInterceptor(Cocos2dxHttpTiming.QUEUE_INTERCEPTOR)
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .followRedirects(true)
+                    .followSslRedirects(true)
+                    .build();
+        }
+        return sHttpClient;
+    }
+
+    // Called from native, the result is passed to nativeOnFinish on the GL thread.
+    static void sendRequest(int id, String method, String url, String[] header, byte[] body, int timeoutMiliseconds) {
+        RequestBody requestBody = null;
+        if (null != body || requiresRequestBody(method)) {
+            String contentType = getContentType(header);
+            requestBody = RequestBody.create(null == contentType ? null : MediaType.parse(contentType),
+                    null == body ? new byte[0] : body);
+        }
+        sendRequest(id, method, url, header, requestBody, timeoutMiliseconds, GL_THREAD_EXECUTOR, NATIVE_LISTENER);
+    }
+
+    // Streams the body from a file or asset, see Cocos2dxHttpRequestBody.fromFile
+    static void sendRequestWithFile(int id, String method, String url, String[] header, String path, int timeoutMiliseconds) {
+        Cocos2dxHttpRequestBody body = Cocos2dxHttpRequestBody.fromFile(path, getContentType(header));
+        body.setProgressListener(createNativeProgressListener(id));
+        sendRequest(id, method, url, header, body, timeoutMiliseconds, GL_THREAD_EXECUTOR, NATIVE_LISTENER);
+    }
+
+    // Streams the body from nativeReadBody, contentLength -1 sends it chunked
+    static void sendRequestWithProducer(int id, String method, String url, String[] header, long contentLength, int timeoutMiliseconds) {
+        Cocos2dxHttpRequestBody body = Cocos2dxHttpRequestBody.fromProducer(id, contentLength, getContentType(header));
+        body.setProgressListener(createNativeProgressListener(id));
+        sendRequest(id, method, url, header, body, timeoutMiliseconds, GL_THREAD_EXECUTOR, NATIVE_LISTENER);
+    }
+
+    // Priority class of the next request sent with this id, one of the Cocos2dxHttpPriority constants
+    static void setPriority(int id, int priority) {
+        sPriorities.put(id, priority);
+    }
+
+    public static void sendRequest(int id, String method, String url, String[] header, RequestBody body,
+                                   int timeoutMiliseconds, Executor executor, Listener listener) {
+        Integer priority = sPriorities.remove(id);
+        sendRequest(id, method, url, header, body, timeoutMiliseconds,
+                null == priority ? Cocos2dxHttpPriority.NORMAL : priority, executor, listener);
+    }
+
+    /**
+     * @param header alternating keys and values
+     * @param body   request body, or null
+     * @param timeoutMiliseconds timeout of the whole call, 0 for the client default
+     * @param priority one of the Cocos2dxHttpPriority constants, the call is enqueued once its class has a free slot
+     */
+    public static void sendRequest(final int id, String method, String url, String[] header, RequestBody body,
+                                   int timeoutMiliseconds, final int priority, final Executor executor, final Listener listener) {
+        Request request;
+        try {
+            request = buildRequest(method, url, header, body);
+        } catch (Exception e) {
+            Log.e(TAG, "sendRequest:" + e.toString());
+            deliver(executor, listener, id, 0, null, null, e.toString());
+            return;
+        }
+
+        OkHttpClient client = getHttpClient();
+        if (timeoutMiliseconds > 0) {
+            // Shares the dispatcher and connection pool of the default client
+            client = client.newBuilder().callTimeout(timeoutMiliseconds, TimeUnit.MILLISECONDS).build();
+        }
+
+        final Call task = client.newCall(request);
+        sTaskMap.put(id, task);
+        final Callback callback = new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Cocos2dxHttpPriority.release(priority);
+                sTaskMap.remove(id);
+                finishTiming(id, call);
+                deliver(executor, listener, id, 0, null, null, e.toString());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                sTaskMap.remove(id);
+                ResponseBody responseBody = response.body();
+                byte[] data = null;
+                String errStr = null;
+                try {
+                    data = (null == responseBody) ? null : responseBody.bytes();
+                } catch (IOException e) {
+                    errStr = e.toString();
+                } finally {
+                    response.close();
+                    Cocos2dxHttpPriority.release(priority);
+                }
+                finishTiming(id, call);
+                deliver(executor, listener, id, response.code(), toHeaders(response), data, errStr);
+            }
+        };
+        Cocos2dxHttpPriority.enqueue(priority, new Runnable() {
+            @Override
+            public void run() {
+                // An aborted call fails right away and gives its slot back
+                task.enqueue(callback);
+            }
+        });
+    }
+
+    /**
+     * Phase durations and counters of a finished request, indexed as in Cocos2dxHttpTiming.
+     * Available once the request finished, e.g. from nativeOnFinish; can be read once.
+     */
+    static long[] getRequestTiming(int id) {
+        Cocos2dxHttpTiming timing;
+        synchronized (sTimings) {
+            timing = sTimings.remove(id);
+        }
+        return (null == timing) ? null : timing.toArray();
+    }
+
+    private static void finishTiming(int id, Call call) {
+        Cocos2dxHttpTiming timing = Cocos2dxHttpTiming.finish(call);
+        if (null != timing) {
+            synchronized (sTimings) {
+                sTimings.put(id, timing);
+            }
+        }
+    }
+
+    static void abort(int id) {
+        Call task = sTaskMap.remove(id);
+        if (null != task) {
+            task.cancel();
+        }
+    }
+
+    static void cancelAllRequests() {
+        for (Call task : sTaskMap.values()) {
+            task.cancel();
+        }
+        sTaskMap.clear();
+    }
+
+    static Request buildRequest(String method, String url, String[] header, RequestBody body) {
+        Request.Builder builder = new Request.Builder().url(url);
+        if (null != header) {
+            for (int i = 0; i < header.length / 2; i++) {
+                builder.addHeader(header[i * 2], header[(i * 2) + 1]);
+            }
+        }
+        builder.method(method.toUpperCase(Locale.US), body);
+        return builder.build();
+    }
+
+    private static String getContentType(String[] header) {
+        if (null != header) {
+            for (int i = 0; i < header.length / 2; i++) {
+                if ("Content-Type".equalsIgnoreCase(header[i * 2])) {
+                    return header[(i * 2) + 1];
+                }
+            }
+        }
+        return null;
+    }
+
+    // Reports upload progress to native on the GL thread, at most every PROGRESS_INTERVAL bytes
+    private static Cocos2dxHttpRequestBody.ProgressListener createNativeProgressListener(final int id) {
+        return new Cocos2dxHttpRequestBody.ProgressListener() {
+            long mReported = 0;
+
+            @Override
+            public void onProgress(final long sent, final long total) {
+                if (sent - mReported < PROGRESS_INTERVAL && sent != total) {
+                    return;
+                }
+                mReported = sent;
+                Cocos2dxHelper.runOnGLThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        nativeOnUploadProgress(id, sent, total);
+                    }
+                });
+            }
+        };
+    }
+
+    private static boolean requiresRequestBody(String method) {
+        return "POST".equalsIgnoreCase(method) || "PUT".equalsIgnoreCase(method) || "PATCH".equalsIgnoreCase(method);
+    }
+
+    // Same layout as HttpURLConnection.getHeaderFields: the status line under a null key first
+    private static Cocos2dxHttpResponseHeaders toHeaders(Response response) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        String statusLine = response.protocol().toString().toUpperCase(Locale.US) + " " + response.code() + " " + response.message();
+        headers.put(null, Collections.singletonList(statusLine));
+        headers.putAll(response.headers().toMultimap());
+        return new Cocos2dxHttpResponseHeaders(headers);
+    }
+
+    private static void parseCookieHeader(HttpUrl url, String header, List<Cookie> cookies) {
+        int start = 0;
+        int length = header.length();
+        while (start < length) {
+            int end = header.indexOf(';', start);
+            if (-1 == end) {
+                end = length;
+            }
+            String pair = header.substring(start, end).trim();
+            // skip RFC 2965 attributes such as $Version and $Path
+            Cookie cookie = pair.startsWith("$") ? null : Cookie.parse(url, pair);
+            if (null != cookie) {
+                cookies.add(cookie);
+            }
+            start = end + 1;
+        }
+    }
+
+    private static void deliver(Executor executor, final Listener listener, final int id, final int code,
+                                final Cocos2dxHttpResponseHeaders headers, final byte[] body, final String errStr) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onFinish(id, code, headers, body, errStr);
+            }
+        });
+    }
+
+    private static native void nativeOnUploadProgress(int id, long sent, long total);
+    private static native void nativeOnFinish(int id, int code, byte[] headers, byte[] body, String errStr);
+}
@@ -0,0 +1,138 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ExecutorService;
+
+import org.cocos2dx.okhttp3.Call;
+import org.cocos2dx.okhttp3.Callback;
+import org.cocos2dx.okhttp3.HttpUrl;
+import org.cocos2dx.okhttp3.Request;
+import org.cocos2dx.okhttp3.Response;
+
+/**
+ * Warms up hosts before the game needs them: resolves DNS into Cocos2dxDns and opens keep-alive
+ * connections, including the TLS handshake, in both the Cocos2dxHttpClient pool and the platform
+ * pool used by Cocos2dxHttpURLConnection. Everything runs in the background.
+ *
+ * Only Cocos2dxHttpClient looks hosts up through Cocos2dxDns, HttpURLConnection resolves on its
+ * own. The platform pool keys connections by SSLSocketFactory, so the HttpURLConnection warm-up
+ * only helps requests that verify the server the same way: pass the CA file the game gives
+ * setVerifySSL, or null if its requests use the default trust.
+ */
+public class Cocos2dxHttpPrewarm {
+    private static final String TAG = "Cocos2dxHttpPrewarm";
+    private static final int TIMEOUT_MILISECONDS = 10000;
+
+    public static void prewarm(String[] hosts) {
+        prewarm(hosts, null);
+    }
+
+    /**
+     * @param hosts host names such as "api.example.com" (https is assumed) or base URLs such as
+     *              "http://cdn.example.com:8080"
+     * @param sslFilename CA file the requests to these hosts pass to setVerifySSL, or null
+     */
+    public static void prewarm(String[] hosts, final String sslFilename) {
+        if (null == hosts) {
+            return;
+        }
+
+        ExecutorService executor = Cocos2dxHttpClient.getHttpClient().dispatcher().executorService();
+        for (String host : hosts) {
+            final HttpUrl url = toUrl(host);
+            if (null == url) {
+                Log.e(TAG, "prewarm: invalid host " + host);
+                continue;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Cocos2dxDns.INSTANCE.resolve(url.host());
+                    } catch (IOException e) {
+                        Log.e(TAG, "resolve " + url.host() + ":" + e.toString());
+                        return;
+                    }
+                    warmHttpClient(url);
+                    warmHttpURLConnection(url, sslFilename);
+                }
+            });
+        }
+    }
+
+    private static HttpUrl toUrl(String host) {
+        if (null == host || host.length() == 0) {
+            return null;
+        }
+        String url = host.contains("://") ? host : "https://" + host;
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        return (null == httpUrl) ? null : httpUrl.resolve("/");
+    }
+
+    // The HEAD response is discarded, its connection stays in the Cocos2dxHttpClient pool
+    private static void warmHttpClient(HttpUrl url) {
+        Request request = new Request.Builder().url(url).head().build();
+        Cocos2dxHttpClient.getHttpClient().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Cocos2dxHttpTiming.finish(call);
+                Log.e(TAG, "warm " + call.request().url() + ":" + e.toString());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                Cocos2dxHttpTiming.finish(call);
+            }
+        });
+    }
+
+    // Reading the HEAD response to the end returns its connection to the platform pool. It goes
+    // through the SSLSocketFactory setVerifySSL picks, or the pool would keep it for nobody.
+    private static void warmHttpURLConnection(HttpUrl url, String sslFilename) {
+        HttpURLConnection http = Cocos2dxHttpURLConnection.createHttpURLConnection(url.toString());
+        if (null == http) {
+            return;
+        }
+        if (null != sslFilename) {
+            Cocos2dxHttpURLConnection.setVerifySSL(http, sslFilename);
+        }
+        try {
+            http.setRequestMethod("HEAD");
+            http.setUseCaches(false);
+            Cocos2dxHttpURLConnection.setReadAndConnectTimeout(http, TIMEOUT_MILISECONDS, TIMEOUT_MILISECONDS);
+            http.getResponseCode();
+            InputStream in = http.getInputStream();
+            in.close();
+        } catch (Exception e) {
+            Log.e(TAG, "warm " + url + ":" + e.toString());
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.WeakHashMap;
+
+/**
+ * Priority classes of HTTP requests, each with its own concurrency budget.
+ *
+ * A request starts once its class has a free slot. Critical requests have a budget of their
+ * own, so they never wait behind normal or background ones, and are started first when slots
+ * free up. Background requests are held back while a critical request is waiting or in flight,
+ * so telemetry doesn't compete with gameplay calls for a congested link.
+ *
+ * Cocos2dxHttpURLConnection takes a slot in connect, only for requests that go to the network
+ * themselves, and gives it back once the body was read or in disconnect. The slot of a
+ * connection that is garbage collected without either is reclaimed. Cocos2dxHttpClient takes
+ * one before enqueuing the call and gives it back when it finished.
+ */
+public class Cocos2dxHttpPriority {
+    public static final int CRITICAL = 0;
+    public static final int NORMAL = 1;
+    public static final int BACKGROUND = 2;
+    private static final int PRIORITY_COUNT = 3;
+
+    private static final int[] DEFAULT_BUDGETS = { 8, 6, 2 };
+    // A blocked connect proceeds without a slot after this long, so a leaked slot can't stall requests
+    private static final long MAX_WAIT_MS = 30 * 1000;
+    // A blocked connect looks for slots of collected connections this often
+    private static final long RECLAIM_INTERVAL_MS = 1000;
+
+    private static class Ticket {
+        final int priority;
+        final Runnable task;
+        boolean started = false;
+
+        Ticket(int priority, Runnable task) {
+            this.priority = priority;
+            this.task = task;
+        }
+    }
+
+    private static final Object sLock = new Object();
+    private static final int[] sBudgets = DEFAULT_BUDGETS.clone();
+    private static final int[] sRunning = new int[PRIORITY_COUNT];
+    private static final ArrayDeque<Ticket>[] sWaiting = createQueues();
+
+    // Slot held by a connection, enqueued in sCollected if the connection is collected with it
+    private static class Slot extends WeakReference<HttpURLConnection> {
+        final int priority;
+
+        Slot(HttpURLConnection http, int priority) {
+            super(http, sCollected);
+            this.priority = priority;
+        }
+    }
+
+    private static final ReferenceQueue<HttpURLConnection> sCollected = new ReferenceQueue<>();
+    // Connections holding a slot, guarded by sLock
+    private static final List<Slot> sSlots = new ArrayList<>();
+
+    // Priority of connections, NORMAL if not set
+    private static final WeakHashMap<HttpURLConnection, Integer> sPriorities = new WeakHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Ticket>[] createQueues() {
+        ArrayDeque<Ticket>[] queues = (ArrayDeque<Ticket>[]) new ArrayDeque<?>[PRIORITY_COUNT];
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        return queues;
+    }
+
+    private static int checkPriority(int priority) {
+        return (priority < CRITICAL || priority > BACKGROUND) ? NORMAL : priority;
+    }
+
+    // Number of requests of a class that may run at the same time
+    public static void setBudget(int priority, int maxRequests) {
+        List<Ticket> started;
+        synchronized (sLock) {
+            sBudgets[checkPriority(priority)] = Math.max(1, maxRequests);
+            started = promote();
+        }
+        run(started);
+    }
+
+    static void setPriority(HttpURLConnection http, int priority) {
+        synchronized (sPriorities) {
+            sPriorities.put(http, checkPriority(priority));
+        }
+    }
+
+    static int getPriority(HttpURLConnection http) {
+        synchronized (sPriorities) {
+            Integer priority = sPriorities.get(http);
+            return (null == priority) ? NORMAL : priority;
+        }
+    }
+
+    // Blocks the calling thread until the connection's class has a free slot, the wait is recorded as QUEUE
+    static void acquire(HttpURLConnection http, Cocos2dxHttpTiming timing) {
+        long start = System.nanoTime();
+        int priority = getPriority(http);
+        Ticket ticket = new Ticket(priority, null);
+        List<Ticket> started;
+        synchronized (sLock) {
+            sWaiting[priority].add(ticket);
+            started = promote();
+        }
+        run(started);
+
+        boolean interrupted = false;
+        started = null;
+        synchronized (sLock) {
+            long end = System.currentTimeMillis() + MAX_WAIT_MS;
+            long now;
+            while (!ticket.started && (now = System.currentTimeMillis()) < end) {
+                try {
+                    sLock.wait(Math.min(end - now, RECLAIM_INTERVAL_MS));
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+                if (!ticket.started) {
+                    started = merge(started, promote());
+                }
+            }
+            if (ticket.started) {
+                sSlots.add(new Slot(http, priority));
+            } else {
+                sWaiting[priority].remove(ticket);
+            }
+        }
+        run(started);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        timing.add(Cocos2dxHttpTiming.QUEUE, start);
+    }
+
+    // Gives the connection's slot back, does nothing if it holds none
+    static void release(HttpURLConnection http) {
+        synchronized (sPriorities) {
+            sPriorities.remove(http);
+        }
+        List<Ticket> started;
+        synchronized (sLock) {
+            Slot slot = null;
+            for (int i = 0; i < sSlots.size(); i++) {
+                if (sSlots.get(i).get() == http) {
+                    slot = sSlots.remove(i);
+                    break;
+                }
+            }
+            if (null == slot) {
+                return;
+            }
+            slot.clear();
+            sRunning[slot.priority]--;
+            started = promote();
+        }
+        run(started);
+    }
+
+    // Runs the task once a slot of the class is free, the slot is given back with release(priority)
+    static void enqueue(int priority, Runnable task) {
+        List<Ticket> started;
+        synchronized (sLock) {
+            sWaiting[checkPriority(priority)].add(new Ticket(checkPriority(priority), task));
+            started = promote();
+        }
+        run(started);
+    }
+
+    static void release(int priority) {
+        List<Ticket> started;
+        synchronized (sLock) {
+            sRunning[checkPriority(priority)]--;
+            started = promote();
+        }
+        run(started);
+    }
+
+    // Starts waiting requests in priority order while budgets allow, called with sLock held
+    private static List<Ticket> promote() {
+        reclaim();
+        List<Ticket> started = null;
+        boolean wake = false;
+        for (int priority = CRITICAL; priority < PRIORITY_COUNT; priority++) {
+            ArrayDeque<Ticket> queue = sWaiting[priority];
+            while (!queue.isEmpty() && canStart(priority)) {
+                Ticket ticket = queue.poll();
+                ticket.started = true;
+                sRunning[priority]++;
+                if (null == ticket.task) {
+                    wake = true;
+                } else {
+                    if (null == started) {
+                        started = new ArrayList<>();
+                    }
+                    started.add(ticket);
+                }
+            }
+        }
+        if (wake) {
+            sLock.notifyAll();
+        }
+        return started;
+    }
+
+    // Frees the slots of connections that were collected without giving them back, called with sLock held
+    private static void reclaim() {
+        Reference<? extends HttpURLConnection> collected;
+        while (null != (collected = sCollected.poll())) {
+            if (sSlots.remove(collected)) {
+                sRunning[((Slot) collected).priority]--;
+            }
+        }
+    }
+
+    private static List<Ticket> merge(List<Ticket> started, List<Ticket> more) {
+        if (null == started) {
+            return more;
+        }
+        if (null != more) {
+            started.addAll(more);
+        }
+        return started;
+    }
+
+    private static boolean canStart(int priority) {
+        if (sRunning[priority] >= sBudgets[priority]) {
+            return false;
+        }
+        return BACKGROUND != priority || (0 == sRunning[CRITICAL] && sWaiting[CRITICAL].isEmpty());
+    }
+
+    private static void run(List<Ticket> started) {
+        if (null != started) {
+            for (Ticket ticket : started) {
+                ticket.task.run();
+            }
+        }
+    }
+}
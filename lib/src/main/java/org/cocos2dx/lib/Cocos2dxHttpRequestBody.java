@@ -0,0 +1,263 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.cocos2dx.okhttp3.MediaType;
+import org.cocos2dx.okhttp3.RequestBody;
+import org.cocos2dx.okio.BufferedSink;
+
+/**
+ * Request body streamed from a file, an asset or a native producer instead of a byte[].
+ *
+ * Bodies with a known length are sent with Content-Length, the others with chunked transfer
+ * encoding. The body is copied in CHUNK_SIZE pieces, so memory use doesn't depend on its size.
+ */
+public class Cocos2dxHttpRequestBody extends RequestBody {
+    private static final String TAG = "Cocos2dxHttpRequestBody";
+    private static final int CHUNK_SIZE = 16 * 1024;
+    // A producer that has nothing yet is polled with a growing delay, and fails when idle too long
+    private static final long PRODUCER_MAX_WAIT_MS = 16;
+    private static final long PRODUCER_TIMEOUT_MS = 30 * 1000;
+
+    public interface ProgressListener {
+        void onProgress(long sent, long total);
+    }
+
+    private final String mPath;
+    private final long mOffset;
+    private final int mProducerId;
+    private final long mContentLength;
+    private final MediaType mContentType;
+    private ProgressListener mProgressListener = null;
+    private boolean mProduced = false;
+
+    private Cocos2dxHttpRequestBody(String path, long offset, int producerId, long contentLength, String contentType) {
+        mPath = path;
+        mOffset = offset;
+        mProducerId = producerId;
+        mContentLength = contentLength;
+        mContentType = (null == contentType) ? null : MediaType.parse(contentType);
+    }
+
+    // path is absolute, or an asset path optionally prefixed with "@assets/" or "assets/"
+    static Cocos2dxHttpRequestBody fromFile(String path, String contentType) {
+        return new Cocos2dxHttpRequestBody(path, 0, 0, getFileLength(path), contentType);
+    }
+
+    // length bytes of a file or asset starting at offset, e.g. a chunk of a resumable upload
+    static Cocos2dxHttpRequestBody fromFileRange(String path, long offset, long length, String contentType) {
+        return new Cocos2dxHttpRequestBody(path, offset, 0, length, contentType);
+    }
+
+    /**
+     * The body is pulled from nativeReadBody(producerId, buffer) on a network thread.
+     * While it returns 0 the producer is polled again after a delay of up to 16 ms, the request
+     * fails if nothing is produced for 30 seconds.
+     * @param contentLength length of the whole body, or -1 to send it chunked
+     */
+    static Cocos2dxHttpRequestBody fromProducer(int producerId, long contentLength, String contentType) {
+        return new Cocos2dxHttpRequestBody(null, 0, producerId, contentLength, contentType);
+    }
+
+    void setProgressListener(ProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mContentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return mContentLength;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        writeTo(sink.outputStream());
+        sink.flush();
+    }
+
+    // Also used by Cocos2dxHttpURLConnection to stream into HttpURLConnection.getOutputStream
+    void writeTo(OutputStream out) throws IOException {
+        if (null == mPath) {
+            writeProducer(out);
+            return;
+        }
+
+        InputStream in = openFile(mPath);
+        try {
+            skipFully(in, mOffset);
+            byte[] buffer = new byte[CHUNK_SIZE];
+            long sent = 0;
+            int size;
+            while ((mContentLength < 0 || sent < mContentLength)
+                    && (size = in.read(buffer, 0, getReadSize(sent))) != -1) {
+                out.write(buffer, 0, size);
+                sent += size;
+                onProgress(sent);
+            }
+            if (mContentLength >= 0 && sent != mContentLength) {
+                throw new IOException(mPath + " ended after " + sent + " of " + mContentLength + " bytes");
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private int getReadSize(long sent) {
+        if (mContentLength < 0) {
+            return CHUNK_SIZE;
+        }
+        return (int) Math.min(CHUNK_SIZE, mContentLength - sent);
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                // skip may stop early, read tells whether the end was reached
+                if (in.read() == -1) {
+                    throw new IOException("can't skip past the end of the file");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private void writeProducer(OutputStream out) throws IOException {
+        // A producer can't rewind, so a retried request fails instead of sending a partial body
+        synchronized (this) {
+            if (mProduced) {
+                throw new IOException("producer " + mProducerId + " can't be replayed");
+            }
+            mProduced = true;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        byte[] bytes = new byte[CHUNK_SIZE];
+        long sent = 0;
+        long waitMs = 0;
+        long idleSince = 0;
+        while (true) {
+            buffer.clear();
+            int size = nativeReadBody(mProducerId, buffer);
+            if (size < 0) {
+                break;
+            }
+            if (size == 0) {
+                long now = System.nanoTime();
+                if (waitMs == 0) {
+                    idleSince = now;
+                } else if (now - idleSince > PRODUCER_TIMEOUT_MS * 1000000) {
+                    throw new IOException("producer " + mProducerId + " produced nothing for " + PRODUCER_TIMEOUT_MS + " ms");
+                }
+                waitMs = Math.min(Math.max(1, waitMs * 2), PRODUCER_MAX_WAIT_MS);
+                try {
+                    Thread.sleep(waitMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("producer " + mProducerId + " interrupted");
+                }
+                continue;
+            }
+            waitMs = 0;
+            buffer.limit(size);
+            buffer.get(bytes, 0, size);
+            out.write(bytes, 0, size);
+            sent += size;
+            onProgress(sent);
+        }
+        if (mContentLength >= 0 && sent != mContentLength) {
+            throw new IOException("producer " + mProducerId + " wrote " + sent + " of " + mContentLength + " bytes");
+        }
+    }
+
+    private void onProgress(long sent) {
+        if (null != mProgressListener) {
+            mProgressListener.onProgress(sent, mContentLength);
+        }
+    }
+
+    static boolean isAsset(String path) {
+        return !path.startsWith("/");
+    }
+
+    private static String getAssetName(String path) {
+        if (path.startsWith("@assets/")) {
+            return path.substring("@assets/".length());
+        } else if (path.startsWith("assets/")) {
+            return path.substring("assets/".length());
+        }
+        return path;
+    }
+
+    static InputStream openFile(String path) throws IOException {
+        if (isAsset(path)) {
+            return Cocos2dxHelper.getActivity().getAssets().open(getAssetName(path));
+        }
+        return new FileInputStream(path);
+    }
+
+    // Length of a file or asset, -1 if unknown (e.g. compressed assets)
+    static long getFileLength(String path) {
+        if (!isAsset(path)) {
+            File file = new File(path);
+            return file.isFile() ? file.length() : -1;
+        }
+
+        AssetFileDescriptor fd = null;
+        try {
+            fd = Cocos2dxHelper.getActivity().getAssets().openFd(getAssetName(path));
+            return fd.getLength();
+        } catch (IOException e) {
+            // Compressed assets can't be opened as a file descriptor
+            return -1;
+        } finally {
+            if (null != fd) {
+                try {
+                    fd.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "getFileLength:" + e.toString());
+                }
+            }
+        }
+    }
+
+    // Writes the next part of the body at the buffer's position, returns its size, 0 if nothing
+    // is ready yet or -1 at the end
+    private static native int nativeReadBody(int producerId, ByteBuffer buffer);
+}
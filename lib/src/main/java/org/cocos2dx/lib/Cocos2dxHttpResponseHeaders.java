@@ -0,0 +1,184 @@
+/****************************************************************************
+Copyright (c) 2010-2014 cocos2d-x.org
+Copyright (c) 2014-2016 Chukong Technologies Inc.
+Copyright (c) 2017-2018 Xiamen Yaji Software Co., Ltd.
+
+http://www.cocos2d-x.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Snapshot of the response headers of one connection. The header map is walked once into
+ * arrays, and an index of the lower-case keys gives constant-time lookups by key. The joined
+ * values and the packed form for native are built when first asked for, most responses only
+ * have a few of their headers read.
+ */
+public class Cocos2dxHttpResponseHeaders
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String[] mKeys;
+    // Lower-case key -> index, the first of keys that differ only in case wins
+    private final HashMap<String, Integer> mIndex;
+    // Filled by getValueAt, a value may be joined twice by racing threads but is never wrong
+    private final String[] mValues;
+    private final List<String>[] mValueLists;
+    private String mJoined;
+    private byte[] mPacked;
+
+    @SuppressWarnings("unchecked")
+    Cocos2dxHttpResponseHeaders(Map<String, List<String>> headers) {
+        int size = headers.size();
+        mKeys = new String[size];
+        mValues = new String[size];
+        mValueLists = (List<String>[]) new List<?>[size];
+        mIndex = new HashMap<>(size * 4 / 3 + 1);
+
+        int idx = 0;
+        for (Entry<String, List<String>> entry : headers.entrySet()) {
+            String key = entry.getKey();
+            mKeys[idx] = key;
+            mValueLists[idx] = entry.getValue();
+            if (null != key) {
+                String lowerKey = key.toLowerCase(Locale.US);
+                if (!mIndex.containsKey(lowerKey)) {
+                    mIndex.put(lowerKey, idx);
+                }
+            }
+            idx++;
+        }
+    }
+
+    int size() {
+        return mKeys.length;
+    }
+
+    // Returns "key:value\n", or "value\n" for the status line which has no key.
+    String getLine(int idx) {
+        if (idx < 0 || idx >= mKeys.length) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        appendLine(sb, idx);
+        return sb.toString();
+    }
+
+    synchronized String getJoined() {
+        if (null == mJoined) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < mKeys.length; ++i) {
+                appendLine(sb, i);
+            }
+            mJoined = sb.toString();
+        }
+        return mJoined;
+    }
+
+    String getValue(String key) {
+        int idx = indexOf(key);
+        return idx < 0 ? null : getValueAt(idx);
+    }
+
+    // The last value of a header, like HttpURLConnection.getHeaderField
+    String getLastValue(String key) {
+        List<String> values = getValues(key);
+        return (null == values || values.isEmpty()) ? null : values.get(values.size() - 1);
+    }
+
+    List<String> getValues(String key) {
+        int idx = indexOf(key);
+        return idx < 0 ? null : mValueLists[idx];
+    }
+
+    /**
+     * Serializes all headers as big-endian [int count] followed by count entries of
+     * [int keyLength][key UTF-8][int valueLength][value UTF-8]. The status line has keyLength -1.
+     */
+    synchronized byte[] pack() {
+        if (null == mPacked) {
+            byte[][] keys = new byte[mKeys.length][];
+            byte[][] values = new byte[mKeys.length][];
+            int length = 4;
+            for (int i = 0; i < mKeys.length; ++i) {
+                keys[i] = (null == mKeys[i]) ? null : mKeys[i].getBytes(UTF8);
+                String value = getValueAt(i);
+                values[i] = (null == value) ? new byte[0] : value.getBytes(UTF8);
+                length += 8 + (null == keys[i] ? 0 : keys[i].length) + values[i].length;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            buffer.putInt(mKeys.length);
+            for (int i = 0; i < mKeys.length; ++i) {
+                if (null == keys[i]) {
+                    buffer.putInt(-1);
+                } else {
+                    buffer.putInt(keys[i].length);
+                    buffer.put(keys[i]);
+                }
+                buffer.putInt(values[i].length);
+                buffer.put(values[i]);
+            }
+            mPacked = buffer.array();
+        }
+        return mPacked;
+    }
+
+    private int indexOf(String key) {
+        if (null == key) {
+            return -1;
+        }
+        Integer idx = mIndex.get(key.toLowerCase(Locale.US));
+        return (null == idx) ? -1 : idx;
+    }
+
+    // The values of a header joined with ",", a single value is returned as is
+    private String getValueAt(int idx) {
+        String value = mValues[idx];
+        if (null == value) {
+            List<String> values = mValueLists[idx];
+            if (null != values && values.size() == 1) {
+                value = values.get(0);
+                if (null == value) {
+                    value = "";
+                }
+            } else {
+                value = Cocos2dxHttpURLConnection.listToString(values, ",");
+            }
+            mValues[idx] = value;
+        }
+        return value;
+    }
+
+    private void appendLine(StringBuilder sb, int idx) {
+        if (null != mKeys[idx]) {
+            sb.append(mKeys[idx]).append(':');
+        }
+        sb.append(getValueAt(idx)).append('\n');
+    }
+}
@@ -0,0 +1,358 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Coalesces identical GET/HEAD requests that are in flight at the same time.
+ *
+ * The first connection with a given method, URL and request headers performs the request.
+ * Identical connections that arrive before its response headers wait for that response instead
+ * of opening their own. Only if any are waiting, the first connection buffers the body, and
+ * every coalesced connection then reads its status, headers and body from the shared
+ * BufferedResponse. Otherwise, or once more than MAX_COALESCED_BODY bytes were read, the first
+ * connection streams from the network and waiting connections fall back to their own request.
+ */
+public class Cocos2dxHttpSingleFlight {
+    private static final String TAG = "Cocos2dxHttpSingleFlight";
+    private static final int MAX_COALESCED_BODY = 1024 * 1024;
+
+    static final int NOT_COALESCED = -1;
+
+    static class BufferedResponse {
+        int code;
+        String message;
+        Map<String, List<String>> headers;
+        byte[] body;
+        String contentEncoding;
+    }
+
+    private static class Flight {
+        final CountDownLatch done = new CountDownLatch(1);
+        // TLS settings of the first connection, only connections that verify the server the
+        // same way may share its response
+        final SSLSocketFactory socketFactory;
+        final HostnameVerifier hostnameVerifier;
+        // Connections waiting for the response, guarded by sInFlight
+        int followers;
+        BufferedResponse response;
+
+        Flight(HttpURLConnection http) {
+            if (http instanceof HttpsURLConnection) {
+                socketFactory = ((HttpsURLConnection) http).getSSLSocketFactory();
+                hostnameVerifier = ((HttpsURLConnection) http).getHostnameVerifier();
+            } else {
+                socketFactory = null;
+                hostnameVerifier = null;
+            }
+        }
+
+        boolean verifiesLike(HttpURLConnection http) {
+            if (!(http instanceof HttpsURLConnection)) {
+                return null == socketFactory;
+            }
+            HttpsURLConnection https = (HttpsURLConnection) http;
+            return socketFactory == https.getSSLSocketFactory() && hostnameVerifier == https.getHostnameVerifier();
+        }
+    }
+
+    private static boolean sEnabled = true;
+    private static final HashMap<String, Flight> sInFlight = new HashMap<>();
+    private static final WeakHashMap<HttpURLConnection, BufferedResponse> sResponses = new WeakHashMap<>();
+    // Body of a first connection whose buffering stopped at MAX_COALESCED_BODY: the bytes read so
+    // far followed by the rest of the network stream
+    private static final WeakHashMap<HttpURLConnection, InputStream> sBodyStreams = new WeakHashMap<>();
+    private static final Set<HttpURLConnection> sOptedOut = Collections.newSetFromMap(new WeakHashMap<HttpURLConnection, Boolean>());
+
+    static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    static void setCoalescing(HttpURLConnection http, boolean coalescing) {
+        synchronized (sOptedOut) {
+            if (coalescing) {
+                sOptedOut.remove(http);
+            } else {
+                sOptedOut.add(http);
+            }
+        }
+    }
+
+    /**
+     * Connects http through an in-flight identical request if possible.
+     * Returns 0 on success, 1 on failure, or NOT_COALESCED if the caller must connect by itself.
+     * Except for NOT_COALESCED, the phases are recorded in timing: the first connection records
+     * QUEUE, CONNECT, TTFB and the BODY read it buffers, a waiting one records its wait as a
+     * reused CONNECT. Only the first connection takes a Cocos2dxHttpPriority slot.
+     */
+    static int connect(HttpURLConnection http, Cocos2dxHttpTiming timing) {
+        if (!isCoalescable(http)) {
+            return NOT_COALESCED;
+        }
+
+        String key = getKey(http);
+        Flight flight;
+        boolean leader = false;
+        synchronized (sInFlight) {
+            flight = sInFlight.get(key);
+            if (null == flight) {
+                flight = new Flight(http);
+                sInFlight.put(key, flight);
+                leader = true;
+            } else if (flight.verifiesLike(http)) {
+                flight.followers++;
+            } else {
+                // e.g. a pinned CA, a response checked with other certificates must not be shared
+                return NOT_COALESCED;
+            }
+        }
+
+        if (leader) {
+            try {
+                Cocos2dxHttpPriority.acquire(http, timing);
+                return execute(http, key, flight, timing);
+            } finally {
+                land(key, flight);
+                flight.done.countDown();
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            int timeout = http.getConnectTimeout() + http.getReadTimeout();
+            if (timeout > 0) {
+                if (!flight.done.await(timeout, TimeUnit.MILLISECONDS)) {
+                    return NOT_COALESCED;
+                }
+            } else {
+                flight.done.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return NOT_COALESCED;
+        }
+
+        if (null == flight.response) {
+            // The first request failed or its body was too large to share
+            return NOT_COALESCED;
+        }
+        synchronized (sResponses) {
+            sResponses.put(http, flight.response);
+        }
+        timing.add(Cocos2dxHttpTiming.CONNECT, start);
+        timing.set(Cocos2dxHttpTiming.REUSED, 1);
+        return 0;
+    }
+
+    // The shared response of a coalesced connection, or null if it talks to the network itself.
+    static BufferedResponse getResponse(HttpURLConnection http) {
+        synchronized (sResponses) {
+            return sResponses.get(http);
+        }
+    }
+
+    // The body of a first connection that stopped buffering, or null if it reads the network.
+    // The stream is handed over once, the caller closes it.
+    static InputStream takeBodyStream(HttpURLConnection http) {
+        synchronized (sBodyStreams) {
+            return sBodyStreams.remove(http);
+        }
+    }
+
+    static void release(HttpURLConnection http) {
+        synchronized (sResponses) {
+            sResponses.remove(http);
+        }
+        InputStream in = takeBodyStream(http);
+        if (null != in) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Ends the flight, identical requests from now on start their own
+    private static int land(String key, Flight flight) {
+        synchronized (sInFlight) {
+            if (sInFlight.get(key) == flight) {
+                sInFlight.remove(key);
+            }
+            return flight.followers;
+        }
+    }
+
+    private static boolean isCoalescable(HttpURLConnection http) {
+        if (!sEnabled || http.getDoOutput()) {
+            return false;
+        }
+        String method = http.getRequestMethod();
+        if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)) {
+            return false;
+        }
+        synchronized (sOptedOut) {
+            return !sOptedOut.contains(http);
+        }
+    }
+
+    // Method, URL, TLS settings and all request headers in a stable order
+    private static String getKey(HttpURLConnection http) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(http.getRequestMethod()).append(' ').append(http.getURL().toString());
+        if (http instanceof HttpsURLConnection) {
+            // Keeps connections with different trust apart, Flight.verifiesLike settles collisions
+            HttpsURLConnection https = (HttpsURLConnection) http;
+            sb.append(' ').append(System.identityHashCode(https.getSSLSocketFactory()))
+                    .append(' ').append(System.identityHashCode(https.getHostnameVerifier()));
+        }
+        TreeMap<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> entry : http.getRequestProperties().entrySet()) {
+            if (null != entry.getKey()) {
+                headers.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            sb.append('\n').append(entry.getKey()).append(':')
+                    .append(Cocos2dxHttpURLConnection.listToString(entry.getValue(), ","));
+        }
+        return sb.toString();
+    }
+
+    private static int execute(HttpURLConnection http, String key, Flight flight, Cocos2dxHttpTiming timing) {
+        BufferedResponse response = new BufferedResponse();
+        long start = System.nanoTime();
+        try {
+            http.connect();
+            timing.add(Cocos2dxHttpTiming.CONNECT, start);
+            start = System.nanoTime();
+            response.code = http.getResponseCode();
+            timing.add(Cocos2dxHttpTiming.TTFB, start);
+            Cocos2dxHttpCache.onResponse(http);
+            response.message = http.getResponseMessage();
+            response.headers = http.getHeaderFields();
+            response.contentEncoding = http.getContentEncoding();
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.e(TAG, "connect" + e.toString());
+            if (!timing.has(Cocos2dxHttpTiming.CONNECT)) {
+                timing.add(Cocos2dxHttpTiming.CONNECT, start);
+            }
+            return 1;
+        }
+
+        if (0 == land(key, flight) || http.getContentLength() > MAX_COALESCED_BODY) {
+            // Nobody waits or too large to share, let this connection stream from the network
+            return 0;
+        }
+
+        InputStream in;
+        try {
+            in = http.getInputStream();
+        } catch (IOException e) {
+            in = http.getErrorStream();
+        }
+
+        byte[] body;
+        start = System.nanoTime();
+        try {
+            body = (null == in) ? new byte[0] : readAtMost(in, MAX_COALESCED_BODY + 1, http.getContentLength());
+        } catch (IOException e) {
+            Log.e(TAG, "read:" + e.toString());
+            close(in);
+            timing.add(Cocos2dxHttpTiming.BODY, start);
+            return 1;
+        }
+        // Bytes are counted when the connection hands the body to native
+        timing.add(Cocos2dxHttpTiming.BODY, start);
+
+        if (body.length > MAX_COALESCED_BODY) {
+            // The length was unknown, the waiting connections fetch on their own
+            synchronized (sBodyStreams) {
+                sBodyStreams.put(http, new SequenceInputStream(new ByteArrayInputStream(body), in));
+            }
+            return 0;
+        }
+        close(in);
+
+        response.body = body;
+        flight.response = response;
+        synchronized (sResponses) {
+            sResponses.put(http, response);
+        }
+        return 0;
+    }
+
+    // Reads until the end of the stream or until limit bytes were read
+    private static byte[] readAtMost(InputStream in, int limit, int contentLength) throws IOException {
+        byte[] buffer = new byte[(contentLength >= 0 && contentLength < limit) ? contentLength : 8192];
+        int count = 0;
+        while (count < limit) {
+            if (count == buffer.length) {
+                int next = in.read();
+                if (-1 == next) {
+                    break;
+                }
+                buffer = Arrays.copyOf(buffer, Math.min(Math.max(buffer.length * 2, 8192), limit));
+                buffer[count++] = (byte) next;
+                continue;
+            }
+            int size = in.read(buffer, count, buffer.length - count);
+            if (-1 == size) {
+                break;
+            }
+            count += size;
+        }
+        return count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+    }
+
+    private static void close(InputStream in) {
+        if (null != in) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cocos2dx.okhttp3.Call;
+import org.cocos2dx.okhttp3.Connection;
+import org.cocos2dx.okhttp3.EventListener;
+import org.cocos2dx.okhttp3.Handshake;
+import org.cocos2dx.okhttp3.Interceptor;
+import org.cocos2dx.okhttp3.Protocol;
+import org.cocos2dx.okhttp3.Request;
+import org.cocos2dx.okhttp3.Response;
+
+/**
+ * Network timing of one request, plus per-host histograms of all finished requests.
+ *
+ * Durations are in microseconds, -1 if the phase didn't happen (e.g. no DNS lookup on a reused
+ * connection). Requests of Cocos2dxHttpURLConnection only report CONNECT (including DNS and
+ * TLS), REQUEST, TTFB and BODY since HttpURLConnection hides the finer phases.
+ */
+public class Cocos2dxHttpTiming {
+    static final int QUEUE = 0;
+    static final int DNS = 1;
+    static final int CONNECT = 2;
+    static final int TLS = 3;
+    static final int REQUEST = 4;
+    static final int TTFB = 5;
+    static final int BODY = 6;
+    static final int PHASE_COUNT = 7;
+    static final int BYTES_SENT = 7;
+    static final int BYTES_RECEIVED = 8;
+    static final int REUSED = 9;
+    static final int FIELD_COUNT = 10;
+
+    // Bucket i counts durations below 2^i milliseconds, the last one everything above
+    static final int BUCKET_COUNT = 18;
+
+    private final String mHost;
+    private final long[] mValues = new long[FIELD_COUNT];
+
+    Cocos2dxHttpTiming(String host) {
+        mHost = host;
+        Arrays.fill(mValues, 0, PHASE_COUNT, -1);
+    }
+
+    // Adds the time elapsed since startNanos to a phase
+    void add(int phase, long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        mValues[phase] = (mValues[phase] < 0) ? micros : mValues[phase] + micros;
+    }
+
+    boolean has(int phase) {
+        return mValues[phase] >= 0;
+    }
+
+    void set(int field, long value) {
+        mValues[field] = value;
+    }
+
+    void addBytes(int field, long bytes) {
+        mValues[field] += bytes;
+    }
+
+    long[] toArray() {
+        return mValues.clone();
+    }
+
+    // ===========================================================
+    // Per-host histograms
+    // ===========================================================
+
+    private static final HashMap<String, long[]> sHistograms = new HashMap<>();
+
+    // Adds a finished request to the histograms of its host
+    void record() {
+        if (null == mHost) {
+            return;
+        }
+        synchronized (sHistograms) {
+            long[] histogram = sHistograms.get(mHost);
+            if (null == histogram) {
+                histogram = new long[PHASE_COUNT * BUCKET_COUNT];
+                sHistograms.put(mHost, histogram);
+            }
+            for (int phase = 0; phase < PHASE_COUNT; ++phase) {
+                if (mValues[phase] >= 0) {
+                    histogram[phase * BUCKET_COUNT + getBucket(mValues[phase])]++;
+                }
+            }
+        }
+    }
+
+    static int getBucket(long micros) {
+        long millis = micros / 1000;
+        int bucket = 0;
+        while (bucket < BUCKET_COUNT - 1 && millis >= (1L << bucket)) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    static String[] getHosts() {
+        synchronized (sHistograms) {
+            return sHistograms.keySet().toArray(new String[0]);
+        }
+    }
+
+    // PHASE_COUNT rows of BUCKET_COUNT counters, or null if nothing was recorded for host
+    static long[] getHistogram(String host) {
+        synchronized (sHistograms) {
+            long[] histogram = sHistograms.get(host);
+            return (null == histogram) ? null : histogram.clone();
+        }
+    }
+
+    static void resetHistograms() {
+        synchronized (sHistograms) {
+            sHistograms.clear();
+        }
+    }
+
+    // ===========================================================
+    // OkHttp instrumentation
+    // ===========================================================
+
+    private static final ConcurrentHashMap<Call, CallListener> sListeners = new ConcurrentHashMap<>();
+
+    static final EventListener.Factory EVENT_LISTENER_FACTORY = new EventListener.Factory() {
+        @Override
+        public EventListener create(Call call) {
+            CallListener listener = new CallListener(call.request().url().host());
+            sListeners.put(call, listener);
+            return listener;
+        }
+    };
+
+    // Application interceptor, runs when the dispatcher starts executing the call
+    static final Interceptor QUEUE_INTERCEPTOR = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            CallListener listener = sListeners.get(chain.call());
+            if (null != listener && listener.mTiming.mValues[QUEUE] < 0) {
+                listener.mTiming.add(QUEUE, listener.mCallStart);
+            }
+            return chain.proceed(chain.request());
+        }
+    };
+
+    // Detaches the timing of a call, every call of an instrumented client must be finished
+    static Cocos2dxHttpTiming finish(Call call) {
+        CallListener listener = sListeners.remove(call);
+        return (null == listener) ? null : listener.mTiming;
+    }
+
+    private static class CallListener extends EventListener {
+        final Cocos2dxHttpTiming mTiming;
+        final long mCallStart = System.nanoTime();
+        long mDnsStart;
+        long mConnectStart;
+        long mTlsStart;
+        long mRequestStart;
+        long mRequestEnd;
+        long mBodyStart;
+        boolean mConnected = false;
+
+        CallListener(String host) {
+            mTiming = new Cocos2dxHttpTiming(host);
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            mDnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            mTiming.add(DNS, mDnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            mConnectStart = System.nanoTime();
+            mConnected = true;
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            mTlsStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            mTiming.add(TLS, mTlsStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            mTiming.add(CONNECT, mConnectStart);
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol, IOException ioe) {
+            mTiming.add(CONNECT, mConnectStart);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            mTiming.set(REUSED, mConnected ? 0 : 1);
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            mRequestStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            mRequestEnd = System.nanoTime();
+            mTiming.mValues[REQUEST] = (mRequestEnd - mRequestStart) / 1000;
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            mRequestEnd = System.nanoTime();
+            mTiming.mValues[REQUEST] = (mRequestEnd - mRequestStart) / 1000;
+            mTiming.addBytes(BYTES_SENT, byteCount);
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            mTiming.add(TTFB, mRequestEnd);
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            mBodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            mTiming.add(BODY, mBodyStart);
+            mTiming.addBytes(BYTES_RECEIVED, byteCount);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            mTiming.record();
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            mTiming.record();
+        }
+    }
+}
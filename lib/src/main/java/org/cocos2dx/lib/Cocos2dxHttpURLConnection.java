@@ -28,30 +28,40 @@ package org.cocos2dx.lib;
 import android.util.Log;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.lang.reflect.Constructor;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.security.KeyStore;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 
 public class Cocos2dxHttpURLConnection
@@ -59,6 +69,51 @@ public class Cocos2dxHttpURLConnection
     private static String TAG = "Cocos2dxHttpURLConnection";
     private static final String POST_METHOD = "POST" ;
     private static final String PUT_METHOD = "PUT" ;
+    private static final String BROTLI_INPUT_STREAM = "org.brotli.dec.BrotliInputStream";
+    private static final int READ_BUFFER_SIZE = 8192;
+    // Expected expansion of a compressed body, used to presize the output buffer.
+    private static final int COMPRESSED_SIZE_FACTOR = 4;
+    // Upper bound of a presized buffer, so a bogus Content-Length can't trigger a huge allocation.
+    private static final int MAX_PRESIZED_BUFFER = 4 * 1024 * 1024;
+
+    private static final int SSL_SESSION_CACHE_SIZE = 32;
+    private static final int SSL_SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+    // SSLSocketFactory keyed by CA file name
+    private static ConcurrentHashMap<String, SSLSocketFactory> sSSLSocketFactoryCache = new ConcurrentHashMap<>();
+
+    // Header snapshots of live connections, released on disconnect or when the connection is collected
+    private static final WeakHashMap<HttpURLConnection, Cocos2dxHttpResponseHeaders> sResponseHeaders = new WeakHashMap<>();
+    // Body streams opened by readResponseContent
+    private static final WeakHashMap<HttpURLConnection, ReadableByteChannel> sResponseChannels = new WeakHashMap<>();
+
+    // SimpleDateFormat is not thread safe, so every thread keeps its own compiled formats
+    private static final ThreadLocal<SimpleDateFormat[]> sCookieDateFormats = new ThreadLocal<SimpleDateFormat[]>() {
+        @Override
+        protected SimpleDateFormat[] initialValue() {
+            return new SimpleDateFormat[] {
+                    new SimpleDateFormat("EEE, dd-MMM-yy HH:mm:ss zzz", Locale.US),
+                    new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US)
+            };
+        }
+    };
+    // Bodies set by setRequestBodyFile and not sent yet
+    private static final WeakHashMap<HttpURLConnection, Cocos2dxHttpRequestBody> sRequestBodies = new WeakHashMap<>();
+
+    // Timing of live connections, recorded into the per-host histograms on disconnect
+    private static final WeakHashMap<HttpURLConnection, Cocos2dxHttpTiming> sTimings = new WeakHashMap<>();
+
+    private static Constructor<?> sBrotliConstructor = findBrotliConstructor();
+    private static String sAcceptEncoding = (sBrotliConstructor != null) ? "gzip, deflate, br" : "gzip, deflate";
+
+    // Brotli is only advertised if the application bundles the org.brotli decoder.
+    private static Constructor<?> findBrotliConstructor() {
+        try {
+            return Class.forName(BROTLI_INPUT_STREAM).getConstructor(InputStream.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
 
     static HttpURLConnection createHttpURLConnection(String linkURL) {
         URL url;
@@ -66,8 +121,8 @@ public class Cocos2dxHttpURLConnection
         try {
             url = new URL(linkURL);
             urlConnection = (HttpURLConnection) url.openConnection();
-            //Accept-Encoding
-            urlConnection.setRequestProperty("Accept-Encoding", "identity");
+            //Accept-Encoding, the body is decoded in getResponseContent
+            urlConnection.setRequestProperty("Accept-Encoding", sAcceptEncoding);
             urlConnection.setDoInput(true);
         } catch (Exception e) {
             e.printStackTrace();
@@ -102,8 +157,36 @@ public class Cocos2dxHttpURLConnection
 
         HttpsURLConnection httpsURLConnection = (HttpsURLConnection)urlConnection;
 
+        SSLSocketFactory socketFactory = getSSLSocketFactory(sslFilename);
+        if (null != socketFactory) {
+            // Sharing one factory per CA file lets pooled connections and TLS sessions be reused.
+            httpsURLConnection.setSSLSocketFactory(socketFactory);
+        }
+    }
+
+    // Drops cached TLS contexts, e.g. after a hot update replaced a CA file.
+    static void clearSSLCache() {
+        sSSLSocketFactoryCache.clear();
+    }
+
+    private static SSLSocketFactory getSSLSocketFactory(String sslFilename) {
+        SSLSocketFactory socketFactory = sSSLSocketFactoryCache.get(sslFilename);
+        if (null == socketFactory) {
+            socketFactory = createSSLSocketFactory(sslFilename);
+            if (null == socketFactory) {
+                return null;
+            }
+            SSLSocketFactory previous = sSSLSocketFactoryCache.putIfAbsent(sslFilename, socketFactory);
+            if (null != previous) {
+                socketFactory = previous;
+            }
+        }
+        return socketFactory;
+    }
+
+    private static SSLSocketFactory createSSLSocketFactory(String sslFilename) {
+        InputStream caInput = null;
         try {
-            InputStream caInput = null;
             if (sslFilename.startsWith("/")) {
                 caInput = new BufferedInputStream(new FileInputStream(sslFilename));
             }else {
@@ -115,8 +198,7 @@ public class Cocos2dxHttpURLConnection
             CertificateFactory cf = CertificateFactory.getInstance("X.509");
             Certificate ca;
             ca = cf.generateCertificate(caInput);
-            System.out.println("ca=" + ((X509Certificate) ca).getSubjectDN());
-            caInput.close();
+            Log.d(TAG, "ca=" + ((X509Certificate) ca).getSubjectDN());
 
             // Create a KeyStore containing our trusted CAs
             String keyStoreType = KeyStore.getDefaultType();
@@ -133,11 +215,28 @@ public class Cocos2dxHttpURLConnection
             SSLContext context = SSLContext.getInstance("TLS");
             context.init(null, tmf.getTrustManagers(), null);
 
-            httpsURLConnection.setSSLSocketFactory(context.getSocketFactory());
+            // Keep client sessions around so repeated handshakes can be resumed
+            SSLSessionContext sessionContext = context.getClientSessionContext();
+            if (null != sessionContext) {
+                sessionContext.setSessionCacheSize(SSL_SESSION_CACHE_SIZE);
+                sessionContext.setSessionTimeout(SSL_SESSION_TIMEOUT_SECONDS);
+            }
+
+            return context.getSocketFactory();
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(TAG, "setVerifySSL:" + e.toString());
+        } finally {
+            if (null != caInput) {
+                try {
+                    caInput.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "setVerifySSL close:" + e.toString());
+                }
+            }
         }
+
+        return null;
     }
 
     //Add header
@@ -145,81 +244,173 @@ public class Cocos2dxHttpURLConnection
         urlConnection.setRequestProperty(key, value);
     }
 
+    // Requests use the installed Cocos2dxHttpCache unless they opt out here
+    static void setUseCaches(HttpURLConnection http, boolean useCaches) {
+        http.setUseCaches(useCaches);
+    }
+
+    // Identical GET/HEAD requests in flight share one round trip unless they opt out here
+    static void setCoalescing(HttpURLConnection http, boolean coalescing) {
+        Cocos2dxHttpSingleFlight.setCoalescing(http, coalescing);
+    }
+
+    // Priority class of the request, one of the Cocos2dxHttpPriority constants, NORMAL by default
+    static void setPriority(HttpURLConnection http, int priority) {
+        Cocos2dxHttpPriority.setPriority(http, priority);
+    }
+
     static int connect(HttpURLConnection http) {
         int suc = 0;
+        Cocos2dxHttpTiming timing = getTiming(http);
+        long start = System.nanoTime();
 
         try {
+            Cocos2dxHttpCache.prepareRequest(http);
+            // A coalesced connection records its own phases, its body may be read in there.
+            // Only the first of them takes a priority slot, the others just wait for its response.
+            int coalesced = Cocos2dxHttpSingleFlight.connect(http, timing);
+            if (Cocos2dxHttpSingleFlight.NOT_COALESCED != coalesced) {
+                if (0 != coalesced || null != Cocos2dxHttpSingleFlight.getResponse(http)) {
+                    // Failed or buffered, the connection is done with the network
+                    Cocos2dxHttpPriority.release(http);
+                }
+                return coalesced;
+            }
+            Cocos2dxHttpPriority.acquire(http, timing);
+            start = System.nanoTime();
             http.connect();
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(TAG, "connect" + e.toString());
+            Cocos2dxHttpPriority.release(http);
             suc = 1;
         }
 
+        timing.add(Cocos2dxHttpTiming.CONNECT, start);
         return suc;
     }
 
     static void disconnect(HttpURLConnection http) {
+        synchronized (sResponseHeaders) {
+            sResponseHeaders.remove(http);
+        }
+        closeResponseChannel(http);
+        Cocos2dxHttpSingleFlight.release(http);
+        Cocos2dxHttpPriority.release(http);
+        Cocos2dxHttpTiming timing;
+        synchronized (sTimings) {
+            timing = sTimings.remove(http);
+        }
+        if (null != timing) {
+            timing.record();
+        }
         http.disconnect();
     }
 
     static void sendRequest(HttpURLConnection http, byte[] byteArray) {
+        Cocos2dxHttpTiming timing = getTiming(http);
+        long start = System.nanoTime();
         try {
             OutputStream out = http.getOutputStream();
             if(null !=  byteArray) {
                 out.write(byteArray);
                 out.flush();
+                timing.addBytes(Cocos2dxHttpTiming.BYTES_SENT, byteArray.length);
             }
             out.close();
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(TAG, "sendRequest:" + e.toString());
         }
+        timing.add(Cocos2dxHttpTiming.REQUEST, start);
     }
 
-    static String getResponseHeaders(HttpURLConnection http) {
-        Map<String, List<String>> headers = http.getHeaderFields();
-        if (null == headers) {
-            return null;
+    /**
+     * Streams the body from a file or asset instead of a byte[], see Cocos2dxHttpRequestBody.
+     * Must be called before connect, the body is then written by sendRequestBody.
+     */
+    static void setRequestBodyFile(HttpURLConnection http, String path) {
+        Cocos2dxHttpRequestBody body = Cocos2dxHttpRequestBody.fromFile(path, http.getRequestProperty("Content-Type"));
+        long length = body.contentLength();
+        if (length >= 0) {
+            http.setFixedLengthStreamingMode(length);
+        } else {
+            http.setChunkedStreamingMode(0);
         }
+        http.setDoOutput(true);
+        synchronized (sRequestBodies) {
+            sRequestBodies.put(http, body);
+        }
+    }
 
-        String header = "";
+    static void sendRequestBody(HttpURLConnection http) {
+        Cocos2dxHttpRequestBody body;
+        synchronized (sRequestBodies) {
+            body = sRequestBodies.remove(http);
+        }
+        if (null == body) {
+            sendRequest(http, null);
+            return;
+        }
 
-        for (Entry<String, List<String>> entry: headers.entrySet()) {
-            String key = entry.getKey();
-            if (null == key) {
-                header += listToString(entry.getValue(), ",") + "\n";
-            } else {
-                header += key + ":" + listToString(entry.getValue(), ",") + "\n";
+        Cocos2dxHttpTiming timing = getTiming(http);
+        long start = System.nanoTime();
+        try {
+            OutputStream out = http.getOutputStream();
+            body.writeTo(out);
+            out.close();
+            if (body.contentLength() > 0) {
+                timing.addBytes(Cocos2dxHttpTiming.BYTES_SENT, body.contentLength());
             }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.e(TAG, "sendRequestBody:" + e.toString());
         }
+        timing.add(Cocos2dxHttpTiming.REQUEST, start);
+    }
 
-        return header;
+    // Phase durations and counters of this request, indexed as in Cocos2dxHttpTiming
+    static long[] getRequestTiming(HttpURLConnection http) {
+        return getTiming(http).toArray();
     }
 
-    static String getResponseHeaderByIdx(HttpURLConnection http, int idx) {
-        Map<String, List<String>> headers = http.getHeaderFields();
+    private static Cocos2dxHttpTiming getTiming(HttpURLConnection http) {
+        synchronized (sTimings) {
+            Cocos2dxHttpTiming timing = sTimings.get(http);
+            if (null == timing) {
+                timing = new Cocos2dxHttpTiming(http.getURL().getHost());
+                sTimings.put(http, timing);
+            }
+            return timing;
+        }
+    }
+
+    static String getResponseHeaders(HttpURLConnection http) {
+        Cocos2dxHttpResponseHeaders headers = getHeaders(http);
         if (null == headers) {
             return null;
         }
 
-        String header = null;
+        return headers.getJoined();
+    }
 
-        int counter = 0;
-        for (Entry<String, List<String>> entry: headers.entrySet()) {
-            if (counter == idx) {
-                String key = entry.getKey();
-                if (null == key) {
-                    header = listToString(entry.getValue(), ",") + "\n";
-                } else {
-                    header = key + ":" + listToString(entry.getValue(), ",") + "\n";
-                }
-                break;
-            }
-            counter++;
+    // All headers in one length-prefixed buffer, see Cocos2dxHttpResponseHeaders.pack
+    static byte[] getResponseHeadersPacked(HttpURLConnection http) {
+        Cocos2dxHttpResponseHeaders headers = getHeaders(http);
+        if (null == headers) {
+            return null;
+        }
+
+        return headers.pack();
+    }
+
+    static String getResponseHeaderByIdx(HttpURLConnection http, int idx) {
+        Cocos2dxHttpResponseHeaders headers = getHeaders(http);
+        if (null == headers) {
+            return null;
         }
 
-        return header;
+        return headers.getLine(idx);
     }
 
     static String getResponseHeaderByKey(HttpURLConnection http, String key) {
@@ -227,29 +418,49 @@ public class Cocos2dxHttpURLConnection
             return null;
         }
 
-        Map<String, List<String>> headers = http.getHeaderFields();
+        Cocos2dxHttpResponseHeaders headers = getHeaders(http);
         if (null == headers) {
             return null;
         }
 
-        String header = null;
+        if ("set-cookie".equalsIgnoreCase(key)) {
+            List<String> cookies = headers.getValues(key);
+            return null == cookies ? null : combinCookies(cookies, http.getURL().getHost());
+        }
+        return headers.getValue(key);
+    }
 
-        for (Entry<String, List<String>> entry: headers.entrySet()) {
-            if (key.equalsIgnoreCase(entry.getKey())) {
-                if ("set-cookie".equalsIgnoreCase(key)) {
-                    header = combinCookies(entry.getValue(), http.getURL().getHost());
-                } else {
-                    header = listToString(entry.getValue(), ",");
-                }
-                break;
+    // The header map is walked once per connection, later lookups reuse the snapshot.
+    // getHeaderFields may wait for the response, so it is called outside the lock.
+    private static Cocos2dxHttpResponseHeaders getHeaders(HttpURLConnection http) {
+        synchronized (sResponseHeaders) {
+            Cocos2dxHttpResponseHeaders headers = sResponseHeaders.get(http);
+            if (null != headers) {
+                return headers;
             }
         }
 
-        return header;
+        Cocos2dxHttpSingleFlight.BufferedResponse response = Cocos2dxHttpSingleFlight.getResponse(http);
+        Map<String, List<String>> headerFields = (null != response) ? response.headers : http.getHeaderFields();
+        if (null == headerFields) {
+            return null;
+        }
+        Cocos2dxHttpResponseHeaders headers = new Cocos2dxHttpResponseHeaders(headerFields);
+        synchronized (sResponseHeaders) {
+            // Another thread may have published a snapshot meanwhile, keep the first one
+            Cocos2dxHttpResponseHeaders published = sResponseHeaders.get(http);
+            if (null != published) {
+                return published;
+            }
+            sResponseHeaders.put(http, headers);
+        }
+        return headers;
     }
 
     static int getResponseHeaderByKeyInt(HttpURLConnection http, String key) {
-        String value = http.getHeaderField(key);
+        Cocos2dxHttpResponseHeaders headers = getHeaders(http);
+        // The last value, as HttpURLConnection.getHeaderField returns, "123,123" would not parse
+        String value = (null == headers) ? null : headers.getLastValue(key);
 
         if (null == value) {
             return 0;
@@ -258,17 +469,107 @@ public class Cocos2dxHttpURLConnection
         }
     }
 
+    // Called from the native network thread, so decompression never runs on the GL thread.
     static byte[] getResponseContent(HttpURLConnection http) {
-        InputStream in;
+        Cocos2dxHttpTiming timing = getTiming(http);
+        long start = System.nanoTime();
+        InputStream in = openResponseStream(http);
+        if (null == in) {
+            Cocos2dxHttpPriority.release(http);
+            return null;
+        }
+
         try {
-            in = http.getInputStream();
-            String contentEncoding = http.getContentEncoding();
-            if (contentEncoding != null) {
-                if(contentEncoding.equalsIgnoreCase("gzip")){
-                    in = new GZIPInputStream(http.getInputStream()); //reads 2 bytes to determine GZIP stream!
+            byte[] content = readFully(in, getContentSizeHint(getContentLength(http), getContentEncoding(http)));
+            timing.add(Cocos2dxHttpTiming.BODY, start);
+            timing.addBytes(Cocos2dxHttpTiming.BYTES_RECEIVED, content.length);
+            return content;
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.e(TAG, "2 getResponseContent:" + e.toString());
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.e(TAG, "getResponseContent close:" + e.toString());
+            }
+            // The body was read, the slot can go to the next request before native disconnects
+            Cocos2dxHttpPriority.release(http);
+        }
+
+        return null;
+    }
+
+    // Exact body length for presizing, or -1 if unknown or the body is compressed.
+    static int getResponseContentLength(HttpURLConnection http) {
+        String contentEncoding = getContentEncoding(http);
+        if (null != contentEncoding && !contentEncoding.equalsIgnoreCase("identity")) {
+            return -1;
+        }
+        return getContentLength(http);
+    }
+
+    private static String getContentEncoding(HttpURLConnection http) {
+        Cocos2dxHttpSingleFlight.BufferedResponse response = Cocos2dxHttpSingleFlight.getResponse(http);
+        return (null != response) ? response.contentEncoding : http.getContentEncoding();
+    }
+
+    private static int getContentLength(HttpURLConnection http) {
+        Cocos2dxHttpSingleFlight.BufferedResponse response = Cocos2dxHttpSingleFlight.getResponse(http);
+        return (null != response) ? response.body.length : http.getContentLength();
+    }
+
+    /**
+     * Streams the decoded body into a buffer owned by native, usually a direct ByteBuffer.
+     * Bytes are written from the buffer's position up to its limit. Call repeatedly until it
+     * returns -1 at the end of the body; -2 means an error. Either way the stream is closed.
+     */
+    static int readResponseContent(HttpURLConnection http, ByteBuffer buffer) {
+        Cocos2dxHttpTiming timing = getTiming(http);
+        long start = System.nanoTime();
+        ReadableByteChannel channel;
+        synchronized (sResponseChannels) {
+            channel = sResponseChannels.get(http);
+            if (null == channel) {
+                InputStream in = openResponseStream(http);
+                if (null == in) {
+                    Cocos2dxHttpPriority.release(http);
+                    return -2;
                 }
-                else if(contentEncoding.equalsIgnoreCase("deflate")){
-                    in = new InflaterInputStream(http.getInputStream());
+                channel = Channels.newChannel(in);
+                sResponseChannels.put(http, channel);
+            }
+        }
+
+        int result;
+        try {
+            result = channel.read(buffer);
+            timing.add(Cocos2dxHttpTiming.BODY, start);
+            if (-1 != result) {
+                timing.addBytes(Cocos2dxHttpTiming.BYTES_RECEIVED, result);
+                return result;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.e(TAG, "readResponseContent:" + e.toString());
+            result = -2;
+        }
+
+        closeResponseChannel(http);
+        Cocos2dxHttpPriority.release(http);
+        return result;
+    }
+
+    private static InputStream openResponseStream(HttpURLConnection http) {
+        Cocos2dxHttpSingleFlight.BufferedResponse response = Cocos2dxHttpSingleFlight.getResponse(http);
+        InputStream in;
+        try {
+            if (null != response) {
+                in = new ByteArrayInputStream(response.body);
+            } else {
+                in = Cocos2dxHttpSingleFlight.takeBodyStream(http);
+                if (null == in) {
+                    in = http.getInputStream();
                 }
             }
         } catch (IOException e) {
@@ -279,29 +580,112 @@ public class Cocos2dxHttpURLConnection
             return null;
         }
 
+        if (null == in) {
+            return null;
+        }
+
         try {
-            byte[] buffer = new byte[1024];
-            int size   = 0;
-            ByteArrayOutputStream bytestream = new ByteArrayOutputStream();
-            while((size = in.read(buffer, 0 , 1024)) != -1)
-            {
-                bytestream.write(buffer, 0, size);
-            }
-            byte retbuffer[] = bytestream.toByteArray();
-            bytestream.close();
-            return retbuffer;
+            return decodeContent(in, getContentEncoding(http));
         } catch (Exception e) {
             e.printStackTrace();
-            Log.e(TAG, "2 getResponseContent:" + e.toString());
+            Log.e(TAG, "decodeContent:" + e.toString());
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
         }
-
         return null;
     }
 
+    private static void closeResponseChannel(HttpURLConnection http) {
+        ReadableByteChannel channel;
+        synchronized (sResponseChannels) {
+            channel = sResponseChannels.remove(http);
+        }
+        if (null != channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "closeResponseChannel:" + e.toString());
+            }
+        }
+    }
+
+    static InputStream decodeContent(InputStream in, String contentEncoding) throws Exception {
+        if (null == contentEncoding || contentEncoding.equalsIgnoreCase("identity")) {
+            return in;
+        }
+
+        // HEAD, 204 and 304 responses may carry a Content-Encoding without any bytes to decode
+        PushbackInputStream pushback = new PushbackInputStream(in, 1);
+        int first = pushback.read();
+        if (-1 == first) {
+            return pushback;
+        }
+        pushback.unread(first);
+        in = pushback;
+
+        if (contentEncoding.equalsIgnoreCase("gzip")) {
+            return new GZIPInputStream(in, READ_BUFFER_SIZE); //reads 2 bytes to determine GZIP stream!
+        } else if (contentEncoding.equalsIgnoreCase("deflate")) {
+            return new InflaterInputStream(in, new Inflater(), READ_BUFFER_SIZE);
+        } else if (contentEncoding.equalsIgnoreCase("br") && null != sBrotliConstructor) {
+            return (InputStream) sBrotliConstructor.newInstance(in);
+        }
+        return in;
+    }
+
+    static int getContentSizeHint(int contentLength, String contentEncoding) {
+        if (contentLength <= 0) {
+            return 0;
+        }
+
+        long hint = contentLength;
+        if (null != contentEncoding && !contentEncoding.equalsIgnoreCase("identity")) {
+            hint *= COMPRESSED_SIZE_FACTOR;
+        }
+        return (int) Math.min(hint, MAX_PRESIZED_BUFFER);
+    }
+
+    // Reads the stream into a buffer presized from sizeHint. If the hint is exact, the buffer is
+    // returned as is, otherwise it is trimmed with a single copy.
+    static byte[] readFully(InputStream in, int sizeHint) throws IOException {
+        byte[] buffer = new byte[sizeHint > 0 ? sizeHint : READ_BUFFER_SIZE];
+        int count = 0;
+        while (true) {
+            if (count == buffer.length) {
+                int next = in.read();
+                if (-1 == next) {
+                    return buffer;
+                }
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, READ_BUFFER_SIZE));
+                buffer[count++] = (byte) next;
+            }
+
+            int size = in.read(buffer, count, buffer.length - count);
+            if (-1 == size) {
+                break;
+            }
+            count += size;
+        }
+        return count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+    }
+
     static int getResponseCode(HttpURLConnection http) {
+        Cocos2dxHttpSingleFlight.BufferedResponse response = Cocos2dxHttpSingleFlight.getResponse(http);
+        if (null != response) {
+            return response.code;
+        }
+
         int code = 0;
+        Cocos2dxHttpTiming timing = getTiming(http);
+        long start = System.nanoTime();
         try {
             code = http.getResponseCode();
+            if (!timing.has(Cocos2dxHttpTiming.TTFB)) {
+                timing.add(Cocos2dxHttpTiming.TTFB, start);
+            }
+            Cocos2dxHttpCache.onResponse(http);
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(TAG, "getResponseCode:" + e.toString());
@@ -310,6 +694,11 @@ public class Cocos2dxHttpURLConnection
     }
 
     static String getResponseMessage(HttpURLConnection http) {
+        Cocos2dxHttpSingleFlight.BufferedResponse response = Cocos2dxHttpSingleFlight.getResponse(http);
+        if (null != response) {
+            return response.message;
+        }
+
         String msg;
         try {
             msg = http.getResponseMessage();
@@ -343,35 +732,41 @@ public class Cocos2dxHttpURLConnection
 
     public static String combinCookies(List<String> list, String hostDomain) {
         StringBuilder sbCookies = new StringBuilder();
-        String domain    = hostDomain;
         String tailmatch = "FALSE";
-        String path      = "/";
-        String secure    = "FALSE";
-        String key = null;
-        String value = null;
-        String expires = null;
         for (String str : list) {
-            String[] parts = str.split(";");
-            for (String part : parts) {
-                int firstIndex = part.indexOf("=");
-                if (-1 == firstIndex)
-                    continue;
-
-                String[] item =  {part.substring(0, firstIndex), part.substring(firstIndex + 1)};
-                if ("expires".equalsIgnoreCase(item[0].trim())) {
-                    expires = str2Seconds(item[1].trim());
-                } else if("path".equalsIgnoreCase(item[0].trim())) {
-                    path = item[1];
-                } else if("secure".equalsIgnoreCase(item[0].trim())) {
-                    secure = item[1];
-                } else if("domain".equalsIgnoreCase(item[0].trim())) {
-                    domain = item[1];
-                } else if("version".equalsIgnoreCase(item[0].trim()) || "max-age".equalsIgnoreCase(item[0].trim())) {
-                    //do nothing
-                } else {
-                    key = item[0];
-                    value = item[1];
+            String domain    = hostDomain;
+            String path      = "/";
+            String secure    = "FALSE";
+            String key = null;
+            String value = null;
+            String expires = null;
+
+            // Walk the "name=value; attr=value" pairs in place instead of splitting
+            int start = 0;
+            int length = str.length();
+            while (start < length) {
+                int end = str.indexOf(';', start);
+                if (-1 == end) {
+                    end = length;
                 }
+                int firstIndex = str.indexOf('=', start);
+                if (-1 != firstIndex && firstIndex < end) {
+                    if (isCookieAttribute(str, start, firstIndex, "expires")) {
+                        expires = str2Seconds(str.substring(firstIndex + 1, end).trim());
+                    } else if (isCookieAttribute(str, start, firstIndex, "path")) {
+                        path = str.substring(firstIndex + 1, end);
+                    } else if (isCookieAttribute(str, start, firstIndex, "secure")) {
+                        secure = str.substring(firstIndex + 1, end);
+                    } else if (isCookieAttribute(str, start, firstIndex, "domain")) {
+                        domain = str.substring(firstIndex + 1, end);
+                    } else if (isCookieAttribute(str, start, firstIndex, "version") || isCookieAttribute(str, start, firstIndex, "max-age")) {
+                        //do nothing
+                    } else {
+                        key = str.substring(start, firstIndex);
+                        value = str.substring(firstIndex + 1, end);
+                    }
+                }
+                start = end + 1;
             }
 
             if (null == domain) {
@@ -397,17 +792,37 @@ public class Cocos2dxHttpURLConnection
         return sbCookies.toString();
     }
 
-    private static String str2Seconds(String strTime) {
-        Calendar c = Calendar.getInstance();
-        long milliseconds = 0;
+    // Compares str[start, end) ignoring surrounding whitespace and case, without allocating
+    private static boolean isCookieAttribute(String str, int start, int end, String name) {
+        while (start < end && str.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && str.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end - start == name.length() && str.regionMatches(true, start, name, 0, name.length());
+    }
 
-        try {
-            c.setTime(new SimpleDateFormat("EEE, dd-MMM-yy hh:mm:ss zzz", Locale.US).parse(strTime));
-            milliseconds = c.getTimeInMillis() / 1000;
-        } catch (ParseException e) {
-            Log.e(TAG, "str2Seconds: " + e.toString());
+    static String str2Seconds(String strTime) {
+        long milliseconds = parseCookieDate(strTime);
+        if (milliseconds < 0) {
+            Log.e(TAG, "str2Seconds: Unparseable date: " + strTime);
+            return "0";
         }
 
-        return Long.toString(milliseconds);
+        return Long.toString(milliseconds / 1000);
+    }
+
+    // Returns the time in milliseconds, or -1 if no known cookie date format matches.
+    static long parseCookieDate(String strTime) {
+        SimpleDateFormat[] formats = sCookieDateFormats.get();
+        for (SimpleDateFormat format : formats) {
+            ParsePosition position = new ParsePosition(0);
+            Date date = format.parse(strTime, position);
+            if (null != date) {
+                return date.getTime();
+            }
+        }
+        return -1;
     }
 }
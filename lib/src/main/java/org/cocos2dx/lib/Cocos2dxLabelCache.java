@@ -0,0 +1,218 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of rasterized labels shared by all CanvasRenderingContext2DImpl instances.
+ *
+ * A context that only draws text on a cleared or solid bitmap defers the draws and looks the
+ * label up here when native reads its pixels. A hit copies the cached pixels into the bitmap
+ * instead of drawing the text. The key covers the bitmap size, the background and every text
+ * draw with its position, font, colors and scale, so a hit is pixel identical. Entries are
+ * kept in direct buffers, the total size is bounded by a byte budget.
+ *
+ * A label is only admitted on its second miss, so text that changes every frame (timers,
+ * scores) doesn't copy its pixels and evict the labels that repeat. The misses are remembered
+ * in a small bit set that is cleared once it fills up. Evicted buffers are kept for reuse by
+ * labels of the same size.
+ */
+public class Cocos2dxLabelCache {
+    private static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+    private static final int SEEN_BITS = 1 << 14;
+    // Cleared after this many first misses, so old misses don't admit labels forever
+    private static final int SEEN_RESET = SEEN_BITS / 8;
+
+    // Access ordered, the eldest entry is the least recently used
+    private static final LinkedHashMap<String, ByteBuffer> sEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long sMaxBytes = DEFAULT_MAX_BYTES;
+    private static long sBytes = 0;
+    private static long sHits = 0;
+    private static long sMisses = 0;
+    private static long sEvictions = 0;
+    private static final long[] sSeen = new long[SEEN_BITS / 64];
+    private static int sSeenCount = 0;
+    // Evicted buffers by capacity, bounded to a quarter of the budget
+    private static final HashMap<Integer, ArrayDeque<ByteBuffer>> sFree = new HashMap<>();
+    private static long sFreeBytes = 0;
+
+    public static synchronized void setMaxBytes(long maxBytes) {
+        sMaxBytes = Math.max(0, maxBytes);
+        trimTo(sMaxBytes);
+        sFree.clear();
+        sFreeBytes = 0;
+    }
+
+    public static synchronized void clear() {
+        sEntries.clear();
+        sBytes = 0;
+        sFree.clear();
+        sFreeBytes = 0;
+        Arrays.fill(sSeen, 0);
+        sSeenCount = 0;
+    }
+
+    // Same policy as Cocos2dxBitmapPool.trimMemory
+    public static synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimTo(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(sMaxBytes / 2);
+        }
+    }
+
+    /**
+     * @return {hits, misses, evictions, entries, bytes}
+     */
+    public static synchronized long[] getStats() {
+        return new long[] { sHits, sMisses, sEvictions, sEntries.size(), sBytes };
+    }
+
+    public static synchronized void resetStats() {
+        sHits = 0;
+        sMisses = 0;
+        sEvictions = 0;
+    }
+
+    // Copies the cached pixels of key into bitmap, returns false on a miss
+    static boolean copyTo(String key, Bitmap bitmap) {
+        synchronized (Cocos2dxLabelCache.class) {
+            ByteBuffer pixels = sEntries.get(key);
+            if (pixels == null) {
+                sMisses++;
+                return false;
+            }
+            sHits++;
+            // Copied under the lock, an evicted buffer may be reused by put
+            pixels.rewind();
+            bitmap.copyPixelsFromBuffer(pixels);
+        }
+        return true;
+    }
+
+    // Called after a miss with the drawn label
+    static void put(String key, Bitmap bitmap) {
+        long size = (long) bitmap.getRowBytes() * bitmap.getHeight();
+        ByteBuffer pixels;
+        // A label larger than a quarter of the budget would evict too much
+        synchronized (Cocos2dxLabelCache.class) {
+            if (size > sMaxBytes / 4 || !seenBefore(key.hashCode()) || sEntries.containsKey(key)) {
+                return;
+            }
+            pixels = takeFree((int) size);
+        }
+
+        if (pixels == null) {
+            pixels = ByteBuffer.allocateDirect((int) size);
+            pixels.order(ByteOrder.nativeOrder());
+        }
+        pixels.clear();
+        bitmap.copyPixelsToBuffer(pixels);
+        synchronized (Cocos2dxLabelCache.class) {
+            ByteBuffer previous = sEntries.put(key, pixels);
+            if (previous != null) {
+                sBytes -= previous.capacity();
+                recycle(previous);
+            }
+            sBytes += size;
+            trimTo(sMaxBytes);
+        }
+    }
+
+    // Records a miss of hash, returns whether it missed before. Two bits per hash, like a
+    // Bloom filter, so a collision only admits a label early.
+    private static boolean seenBefore(int hash) {
+        int first = hash & (SEEN_BITS - 1);
+        int second = ((hash * 0x9E3779B9) >>> 16) & (SEEN_BITS - 1);
+        long firstMask = 1L << first;
+        long secondMask = 1L << second;
+        if ((sSeen[first >>> 6] & firstMask) != 0 && (sSeen[second >>> 6] & secondMask) != 0) {
+            return true;
+        }
+        if (++sSeenCount > SEEN_RESET) {
+            Arrays.fill(sSeen, 0);
+            sSeenCount = 1;
+        }
+        sSeen[first >>> 6] |= firstMask;
+        sSeen[second >>> 6] |= secondMask;
+        return false;
+    }
+
+    private static ByteBuffer takeFree(int size) {
+        ArrayDeque<ByteBuffer> buffers = sFree.get(size);
+        if (buffers == null) {
+            return null;
+        }
+        ByteBuffer pixels = buffers.poll();
+        if (buffers.isEmpty()) {
+            sFree.remove(size);
+        }
+        sFreeBytes -= size;
+        return pixels;
+    }
+
+    private static void recycle(ByteBuffer pixels) {
+        int size = pixels.capacity();
+        if (sFreeBytes + size > sMaxBytes / 4) {
+            return;
+        }
+        ArrayDeque<ByteBuffer> buffers = sFree.get(size);
+        if (buffers == null) {
+            buffers = new ArrayDeque<>();
+            sFree.put(size, buffers);
+        }
+        buffers.push(pixels);
+        sFreeBytes += size;
+    }
+
+    private static void trimTo(long maxBytes) {
+        Iterator<Map.Entry<String, ByteBuffer>> it = sEntries.entrySet().iterator();
+        while (sBytes > maxBytes && it.hasNext()) {
+            ByteBuffer pixels = it.next().getValue();
+            sBytes -= pixels.capacity();
+            it.remove();
+            sEvictions++;
+            if (maxBytes > 0) {
+                recycle(pixels);
+            }
+        }
+        if (maxBytes < sMaxBytes) {
+            // Trimmed for memory, the spare buffers go too
+            sFree.clear();
+            sFreeBytes = 0;
+        }
+    }
+}
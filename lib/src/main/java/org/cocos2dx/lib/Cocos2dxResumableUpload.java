@@ -0,0 +1,384 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.cocos2dx.okhttp3.Call;
+import org.cocos2dx.okhttp3.HttpUrl;
+import org.cocos2dx.okhttp3.Request;
+import org.cocos2dx.okhttp3.RequestBody;
+import org.cocos2dx.okhttp3.Response;
+
+/**
+ * Resumable upload of a file or asset, following the tus 1.0 protocol (https://tus.io).
+ *
+ * The upload is created with a POST to the endpoint, which answers with the upload URL in
+ * Location. The file is then sent in chunks with PATCH requests carrying Upload-Offset. A failed
+ * chunk is retried with backoff after asking the server for its offset with HEAD, so only the
+ * bytes the server didn't store are sent again. The upload URL is kept in SharedPreferences:
+ * starting the same upload after the application was killed continues where the server stopped.
+ */
+public class Cocos2dxResumableUpload {
+    private static final String TAG = "Cocos2dxResumableUpload";
+    private static final String PREFS_NAME = "Cocos2dxUploads";
+    private static final String TUS_VERSION = "1.0.0";
+    private static final String CHUNK_CONTENT_TYPE = "application/offset+octet-stream";
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_CONCURRENT_UPLOADS = 2;
+    private static final int MAX_RETRIES = 5;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 30 * 1000;
+
+    // errCode of nativeOnFinish, positive values are the HTTP status that ended the upload
+    static final int ERROR_NONE = 0;
+    static final int ERROR_NETWORK = -1;
+    static final int ERROR_FILE = -2;
+    static final int ERROR_CANCELED = -3;
+
+    private static class UploadException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+        final boolean retryable;
+
+        UploadException(int code, boolean retryable, String message) {
+            super(message);
+            this.code = code;
+            this.retryable = retryable;
+        }
+    }
+
+    private static final ConcurrentHashMap<Integer, Cocos2dxResumableUpload> sUploads = new ConcurrentHashMap<>();
+    private static ExecutorService sExecutor = null;
+
+    private final int mId;
+    private final String mEndpoint;
+    private final String mPath;
+    private final String[] mHeader;
+    private final int mChunkSize;
+    private final long mLength;
+    private final String mKey;
+    private volatile boolean mCanceled = false;
+    private volatile Call mCall = null;
+
+    private Cocos2dxResumableUpload(int id, String endpoint, String path, String[] header, int chunkSize) {
+        mId = id;
+        mEndpoint = endpoint;
+        mPath = path;
+        mHeader = header;
+        mChunkSize = (chunkSize > 0) ? chunkSize : DEFAULT_CHUNK_SIZE;
+        mLength = Cocos2dxHttpRequestBody.getFileLength(path);
+        mKey = getKey(endpoint, path, mLength);
+    }
+
+    /**
+     * Called from native, progress and the result are passed to nativeOnProgress and
+     * nativeOnFinish on the GL thread.
+     * @param header    alternating keys and values, sent with every request
+     * @param chunkSize bytes sent per PATCH request, 0 for DEFAULT_CHUNK_SIZE
+     */
+    static void startUpload(int id, String endpoint, String path, String[] header, int chunkSize) {
+        final Cocos2dxResumableUpload upload = new Cocos2dxResumableUpload(id, endpoint, path, header, chunkSize);
+        sUploads.put(id, upload);
+        synchronized (Cocos2dxResumableUpload.class) {
+            if (null == sExecutor) {
+                sExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_UPLOADS);
+            }
+        }
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                upload.run();
+            }
+        });
+    }
+
+    // The server keeps what it received, starting the upload again resumes it
+    static void cancelUpload(int id) {
+        Cocos2dxResumableUpload upload = sUploads.get(id);
+        if (null != upload) {
+            upload.cancel();
+        }
+    }
+
+    // Forgets the upload URL, the next upload of this file starts from the beginning
+    static void discardUpload(String endpoint, String path) {
+        SharedPreferences prefs = getSharedPreferences();
+        if (null != prefs) {
+            prefs.edit().remove(getKey(endpoint, path, Cocos2dxHttpRequestBody.getFileLength(path))).apply();
+        }
+    }
+
+    private void cancel() {
+        mCanceled = true;
+        Call call = mCall;
+        if (null != call) {
+            call.cancel();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void run() {
+        int errCode = ERROR_NONE;
+        String errStr = null;
+        String uploadUrl = null;
+        try {
+            if (mLength < 0) {
+                throw new UploadException(ERROR_FILE, false, "can't get the length of " + mPath);
+            }
+            uploadUrl = load();
+            uploadUrl = upload(uploadUrl);
+            save(null);
+        } catch (UploadException e) {
+            errCode = e.code;
+            errStr = e.getMessage();
+        } catch (IOException e) {
+            errCode = mCanceled ? ERROR_CANCELED : ERROR_NETWORK;
+            errStr = e.toString();
+        }
+        if (ERROR_NONE != errCode) {
+            Log.e(TAG, "upload " + mPath + ":" + errStr);
+        }
+        sUploads.remove(mId);
+        onFinish(errCode, errStr, uploadUrl);
+    }
+
+    // Sends the part of the file the server doesn't have, returns the upload URL
+    private String upload(String uploadUrl) throws IOException {
+        long offset = -1;
+        boolean created = false;
+        int failures = 0;
+        while (true) {
+            if (mCanceled) {
+                throw new UploadException(ERROR_CANCELED, false, "canceled");
+            }
+            try {
+                if (null == uploadUrl) {
+                    uploadUrl = create();
+                    save(uploadUrl);
+                    created = true;
+                    offset = 0;
+                } else if (offset < 0) {
+                    offset = fetchOffset(uploadUrl);
+                    if (offset < 0) {
+                        if (created) {
+                            throw new UploadException(ERROR_NETWORK, false, "upload " + uploadUrl + " disappeared");
+                        }
+                        // Expired or unknown to the server, start over
+                        save(null);
+                        uploadUrl = null;
+                        continue;
+                    }
+                    onProgress(offset);
+                }
+                if (offset >= mLength) {
+                    return uploadUrl;
+                }
+                offset = sendChunk(uploadUrl, offset);
+                failures = 0;
+                onProgress(offset);
+            } catch (IOException e) {
+                if (mCanceled) {
+                    throw new UploadException(ERROR_CANCELED, false, "canceled");
+                }
+                if ((e instanceof UploadException && !((UploadException) e).retryable) || ++failures > MAX_RETRIES) {
+                    throw e;
+                }
+                Log.e(TAG, "upload " + mPath + " at " + offset + ", retry " + failures + ":" + e.toString());
+                // The server may have stored part of the chunk, ask where to continue
+                offset = -1;
+                waitForRetry(Math.min(RETRY_DELAY_MS << (failures - 1), MAX_RETRY_DELAY_MS));
+            }
+        }
+    }
+
+    private String create() throws IOException {
+        Request request = newRequest("POST", mEndpoint, RequestBody.create(null, new byte[0]))
+                .header("Upload-Length", Long.toString(mLength))
+                .build();
+        Response response = execute(request);
+        try {
+            checkStatus(response);
+            String location = response.header("Location");
+            HttpUrl url = (null == location) ? null : HttpUrl.get(mEndpoint).resolve(location);
+            if (null == url) {
+                throw new UploadException(response.code(), false, "no upload URL in the response of " + mEndpoint);
+            }
+            return url.toString();
+        } finally {
+            response.close();
+        }
+    }
+
+    // Returns the number of bytes the server stored, -1 if it doesn't know the upload
+    private long fetchOffset(String uploadUrl) throws IOException {
+        Response response = execute(newRequest("HEAD", uploadUrl, null).build());
+        try {
+            int code = response.code();
+            if (404 == code || 410 == code || 403 == code) {
+                return -1;
+            }
+            checkStatus(response);
+            return parseOffset(response);
+        } finally {
+            response.close();
+        }
+    }
+
+    // Returns the offset after the chunk
+    private long sendChunk(String uploadUrl, long offset) throws IOException {
+        long length = Math.min(mChunkSize, mLength - offset);
+        RequestBody body = Cocos2dxHttpRequestBody.fromFileRange(mPath, offset, length, CHUNK_CONTENT_TYPE);
+        Request request = newRequest("PATCH", uploadUrl, body)
+                .header("Upload-Offset", Long.toString(offset))
+                .build();
+        Response response = execute(request);
+        try {
+            checkStatus(response);
+            long newOffset = parseOffset(response);
+            if (newOffset <= offset || newOffset > mLength) {
+                throw new UploadException(response.code(), true, "unexpected Upload-Offset " + newOffset + " after " + offset);
+            }
+            return newOffset;
+        } finally {
+            response.close();
+        }
+    }
+
+    private Request.Builder newRequest(String method, String url, RequestBody body) {
+        return Cocos2dxHttpClient.buildRequest(method, url, mHeader, body).newBuilder()
+                .header("Tus-Resumable", TUS_VERSION);
+    }
+
+    private Response execute(Request request) throws IOException {
+        Call call = Cocos2dxHttpClient.getHttpClient().newCall(request);
+        mCall = call;
+        if (mCanceled) {
+            call.cancel();
+        }
+        try {
+            return call.execute();
+        } finally {
+            mCall = null;
+            Cocos2dxHttpTiming.finish(call);
+        }
+    }
+
+    private static void checkStatus(Response response) throws UploadException {
+        int code = response.code();
+        if (code >= 200 && code < 300) {
+            return;
+        }
+        // 409: the offset doesn't match the server's, 423: the upload is locked by another request
+        boolean retryable = code >= 500 || 408 == code || 409 == code || 423 == code || 429 == code;
+        throw new UploadException(code, retryable, response.request().method() + " " + response.request().url() + ": " + code);
+    }
+
+    private static long parseOffset(Response response) throws UploadException {
+        String offset = response.header("Upload-Offset");
+        try {
+            return Long.parseLong(offset);
+        } catch (NumberFormatException e) {
+            throw new UploadException(response.code(), true, "invalid Upload-Offset " + offset);
+        }
+    }
+
+    private synchronized void waitForRetry(long delayMs) {
+        long end = System.currentTimeMillis() + delayMs;
+        long now;
+        while (!mCanceled && (now = System.currentTimeMillis()) < end) {
+            try {
+                wait(end - now);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // The key identifies the upload of one version of a file to one endpoint
+    private static String getKey(String endpoint, String path, long length) {
+        StringBuilder key = new StringBuilder();
+        key.append(endpoint).append('|').append(path).append('|').append(length);
+        if (!Cocos2dxHttpRequestBody.isAsset(path)) {
+            key.append('|').append(new File(path).lastModified());
+        }
+        return key.toString();
+    }
+
+    private String load() {
+        SharedPreferences prefs = getSharedPreferences();
+        return (null == prefs) ? null : prefs.getString(mKey, null);
+    }
+
+    private void save(String uploadUrl) {
+        SharedPreferences prefs = getSharedPreferences();
+        if (null == prefs) {
+            return;
+        }
+        if (null == uploadUrl) {
+            prefs.edit().remove(mKey).apply();
+        } else {
+            // commit, the URL must survive the application being killed during the upload
+            prefs.edit().putString(mKey, uploadUrl).commit();
+        }
+    }
+
+    private static SharedPreferences getSharedPreferences() {
+        Context context = Cocos2dxHelper.getActivity();
+        return (null == context) ? null : context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private void onProgress(final long uploaded) {
+        Cocos2dxHelper.runOnGLThread(new Runnable() {
+            @Override
+            public void run() {
+                nativeOnProgress(mId, uploaded, mLength);
+            }
+        });
+    }
+
+    private void onFinish(final int errCode, final String errStr, final String uploadUrl) {
+        Cocos2dxHelper.runOnGLThread(new Runnable() {
+            @Override
+            public void run() {
+                nativeOnFinish(mId, errCode, errStr, uploadUrl);
+            }
+        });
+    }
+
+    private static native void nativeOnProgress(int id, long uploaded, long total);
+    private static native void nativeOnFinish(int id, int errCode, String errStr, String uploadUrl);
+}
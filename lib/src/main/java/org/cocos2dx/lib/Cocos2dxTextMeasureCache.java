@@ -0,0 +1,138 @@
+/****************************************************************************
+ Copyright (c) 2018 Xiamen Yaji Software Co., Ltd.
+
+ http://www.cocos2d-x.org
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ****************************************************************************/
+package org.cocos2dx.lib;
+
+import android.graphics.Paint;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of text widths shared by all CanvasRenderingContext2DImpl instances.
+ *
+ * Entries are keyed by the identity of the paint and the text, so only paints that are never
+ * modified may be used, like the shared paints of CanvasRenderingContext2DImpl. Native text
+ * layout measures the same strings again and again while breaking lines, a hit is a map lookup
+ * without allocation. The total length of the cached strings is bounded by a character budget.
+ */
+public class Cocos2dxTextMeasureCache {
+    private static final int DEFAULT_MAX_CHARS = 128 * 1024;
+
+    private static class Key {
+        Paint paint;
+        String text;
+        int hash;
+
+        Key set(Paint paint, String text) {
+            this.paint = paint;
+            this.text = text;
+            this.hash = System.identityHashCode(paint) * 31 + text.hashCode();
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return paint == key.paint && text.equals(key.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // Access ordered, the eldest entry is the least recently used
+    private static final LinkedHashMap<Key, Float> sEntries = new LinkedHashMap<>(64, 0.75f, true);
+    // Reused for lookups, guarded by the class lock
+    private static final Key sProbe = new Key();
+    private static int sMaxChars = DEFAULT_MAX_CHARS;
+    private static int sChars = 0;
+    private static long sHits = 0;
+    private static long sMisses = 0;
+    private static long sEvictions = 0;
+
+    public static synchronized void setMaxChars(int maxChars) {
+        sMaxChars = Math.max(0, maxChars);
+        trimTo(sMaxChars);
+    }
+
+    public static synchronized void clear() {
+        sEntries.clear();
+        sChars = 0;
+    }
+
+    /**
+     * @return {hits, misses, evictions, entries, chars}
+     */
+    public static synchronized long[] getStats() {
+        return new long[] { sHits, sMisses, sEvictions, sEntries.size(), sChars };
+    }
+
+    public static synchronized void resetStats() {
+        sHits = 0;
+        sMisses = 0;
+        sEvictions = 0;
+    }
+
+    // Paint.measureText runs without the lock, so a slow measure doesn't stall other contexts
+    static float measureText(Paint paint, String text) {
+        synchronized (Cocos2dxTextMeasureCache.class) {
+            Float width = sEntries.get(sProbe.set(paint, text));
+            sProbe.set(null, "");
+            if (width != null) {
+                sHits++;
+                return width;
+            }
+            sMisses++;
+        }
+
+        float measured = paint.measureText(text);
+        // A string longer than a quarter of the budget would evict too much
+        if (text.length() <= sMaxChars / 4) {
+            Key key = new Key().set(paint, text);
+            synchronized (Cocos2dxTextMeasureCache.class) {
+                // Another thread may have measured the same text meanwhile
+                if (sEntries.put(key, measured) == null) {
+                    sChars += text.length();
+                    trimTo(sMaxChars);
+                }
+            }
+        }
+        return measured;
+    }
+
+    private static void trimTo(int maxChars) {
+        Iterator<Map.Entry<Key, Float>> it = sEntries.entrySet().iterator();
+        while (sChars > maxChars && it.hasNext()) {
+            sChars -= it.next().getKey().text.length();
+            it.remove();
+            sEvictions++;
+        }
+    }
+}
@@ -22,3 +22,4 @@ dependencyResolutionManagement {
 rootProject.name = "libcocos2dx"
 include(":app")
 include(":lib")
+include(":benchmark")